@@ -0,0 +1,73 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the content hash document ids, against a SHA-1 digest of the body as baseline
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentHashIdBenchmark {
+
+    @Param({"256", "4096", "65536"})
+    private int bodySize;
+
+    private Event[] events;
+
+    private ContentHashId body;
+
+    private ContentHashId headersAndBody;
+
+    private MessageDigest sha1;
+
+    private int cursor;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        events = Events.json(bodySize, 5);
+        body = ContentHashId.parse(ContentHashId.BODY);
+        headersAndBody = ContentHashId.parse(Events.header(0) + "," + Events.header(1) + "," + ContentHashId.BODY);
+        sha1 = MessageDigest.getInstance("SHA-1");
+    }
+
+    private Event next() {
+        cursor = (cursor + 1) & (Events.CORPUS_SIZE - 1);
+        return events[cursor];
+    }
+
+    @Benchmark
+    public String body() {
+        return body.of(next());
+    }
+
+    @Benchmark
+    public String headersAndBody() {
+        return headersAndBody.of(next());
+    }
+
+    @Benchmark
+    public String sha1Body() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sha1.digest(next().getBody()));
+    }
+
+}
@@ -0,0 +1,274 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelException;
+import org.apache.flume.Context;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.sink.DefaultSinkProcessor;
+import org.apache.flume.SinkRunner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the sink from a memory channel against {@link FakeElasticsearch} and reports the
+ * sustained throughput, the enqueue to acknowledgement latency and the heap usage every second.
+ * <p>
+ * Arguments are key=value pairs: rate (events/s, 0 for as fast as possible), duration and warmup
+ * (seconds), bodySize (bytes), latency (ms per bulk), rejectRatio (share of items rejected with 429),
+ * serverThreads, channelCapacity. Keys starting with es. are passed to the sink, ex:
+ * <pre>
+ * java -cp target/benchmarks.jar com.cognitree.flume.sink.elasticsearch.EndToEndBenchmark \
+ *     rate=50000 duration=60 latency=20 rejectRatio=0.01 es.bulk.encoder=ndjson es.retry.enabled=true
+ * </pre>
+ */
+public class EndToEndBenchmark {
+
+    private static final int PRODUCER_BATCH = 100;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("rate", "0");
+        options.put("duration", "30");
+        options.put("warmup", "5");
+        options.put("bodySize", "512");
+        options.put("latency", "5");
+        options.put("rejectRatio", "0");
+        options.put("serverThreads", "8");
+        options.put("channelCapacity", "100000");
+        Map<String, String> sinkProperties = new HashMap<>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            (parts[0].startsWith("es.") ? sinkProperties : options).put(parts[0], parts[1]);
+        }
+        long rate = Long.parseLong(options.get("rate"));
+        int duration = Integer.parseInt(options.get("duration"));
+        int warmup = Integer.parseInt(options.get("warmup"));
+        int bodySize = Integer.parseInt(options.get("bodySize"));
+
+        Latencies latencies = new Latencies();
+        try (FakeElasticsearch elasticsearch = new FakeElasticsearch(Long.parseLong(options.get("latency")),
+                Double.parseDouble(options.get("rejectRatio")), Integer.parseInt(options.get("serverThreads")),
+                ts -> latencies.record(System.nanoTime() - ts))) {
+
+            MemoryChannel channel = new MemoryChannel();
+            channel.setName("benchmark-channel");
+            Context channelContext = new Context();
+            channelContext.put("capacity", options.get("channelCapacity"));
+            channelContext.put("transactionCapacity", "1000");
+            Configurables.configure(channel, channelContext);
+            channel.start();
+
+            ElasticSearchSink sink = new ElasticSearchSink();
+            sink.setName("benchmark-sink");
+            sink.setChannel(channel);
+            Context sinkContext = new Context();
+            sinkContext.put("es.client.hosts", "127.0.0.1:" + elasticsearch.getPort());
+            sinkContext.put("es.index", "benchmark");
+            sinkContext.putAll(sinkProperties);
+            Configurables.configure(sink, sinkContext);
+            DefaultSinkProcessor processor = new DefaultSinkProcessor();
+            processor.setSinks(Collections.singletonList(sink));
+            SinkRunner runner = new SinkRunner(processor);
+            runner.start();
+
+            Producer producer = new Producer(channel, rate, bodySize);
+            Thread producerThread = new Thread(producer, "benchmark-producer");
+            producerThread.setDaemon(true);
+            producerThread.start();
+
+            System.out.printf("%-6s %12s %12s %12s %10s %10s %10s %10s%n",
+                    "second", "enqueued/s", "acked/s", "MB/s", "p50 ms", "p99 ms", "rejected", "heap MB");
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            long totalAcked = 0;
+            long totalBytes = 0;
+            Latencies measured = new Latencies();
+            long lastEnqueued = 0;
+            long lastAcked = 0;
+            long lastBytes = 0;
+            long maxHeap = 0;
+            for (int second = 1; second <= warmup + duration; second++) {
+                TimeUnit.SECONDS.sleep(1);
+                long enqueued = producer.enqueued;
+                long acked = elasticsearch.getIndexed();
+                long bytes = elasticsearch.getBytes();
+                Latencies window = latencies.drain();
+                long heap = memory.getHeapMemoryUsage().getUsed();
+                System.out.printf("%-6s %12d %12d %12.2f %10.2f %10.2f %10d %10d%n",
+                        second <= warmup ? "w" + second : String.valueOf(second - warmup),
+                        enqueued - lastEnqueued, acked - lastAcked, (bytes - lastBytes) / 1048576.0,
+                        window.percentile(0.5), window.percentile(0.99), elasticsearch.getRejected(),
+                        heap / 1048576);
+                if (second > warmup) {
+                    totalAcked += acked - lastAcked;
+                    totalBytes += bytes - lastBytes;
+                    measured.add(window);
+                    maxHeap = Math.max(maxHeap, heap);
+                }
+                lastEnqueued = enqueued;
+                lastAcked = acked;
+                lastBytes = bytes;
+            }
+            producer.running = false;
+            producerThread.join();
+            runner.stop();
+            channel.stop();
+
+            System.out.printf("%nsustained: %.0f events/s, %.2f MB/s, latency p50 %.2f ms, p99 %.2f ms, "
+                            + "p99.9 %.2f ms, max heap %d MB, bulks %d%n",
+                    totalAcked / (double) duration, totalBytes / 1048576.0 / duration,
+                    measured.percentile(0.5), measured.percentile(0.99), measured.percentile(0.999),
+                    maxHeap / 1048576, elasticsearch.getBulks());
+        }
+    }
+
+    /**
+     * Puts events carrying their enqueue time in a "ts" field into the channel at a fixed rate
+     */
+    private static final class Producer implements Runnable {
+
+        private final Channel channel;
+
+        private final long rate;
+
+        private final byte[] prefix;
+
+        private final byte[] suffix;
+
+        private volatile boolean running = true;
+
+        private volatile long enqueued;
+
+        private Producer(Channel channel, long rate, int bodySize) {
+            this.channel = channel;
+            this.rate = rate;
+            this.prefix = "{\"ts\":".getBytes(StandardCharsets.UTF_8);
+            StringBuilder suffix = new StringBuilder(",\"level\":\"INFO\",\"message\":\"");
+            while (suffix.length() < bodySize - 30) {
+                suffix.append("benchmark ");
+            }
+            this.suffix = suffix.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long count = 0;
+            while (running) {
+                if (rate > 0) {
+                    long due = start + count * TimeUnit.SECONDS.toNanos(1) / rate;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        continue;
+                    }
+                }
+                Transaction transaction = channel.getTransaction();
+                transaction.begin();
+                try {
+                    for (int i = 0; i < PRODUCER_BATCH; i++) {
+                        channel.put(EventBuilder.withBody(body(System.nanoTime())));
+                    }
+                    transaction.commit();
+                    count += PRODUCER_BATCH;
+                    enqueued = count;
+                } catch (ChannelException e) {
+                    // channel full, the sink is behind
+                    transaction.rollback();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                } finally {
+                    transaction.close();
+                }
+            }
+        }
+
+        private byte[] body(long ts) {
+            byte[] digits = Long.toString(ts).getBytes(StandardCharsets.US_ASCII);
+            byte[] body = new byte[prefix.length + digits.length + suffix.length];
+            System.arraycopy(prefix, 0, body, 0, prefix.length);
+            System.arraycopy(digits, 0, body, prefix.length, digits.length);
+            System.arraycopy(suffix, 0, body, prefix.length + digits.length, suffix.length);
+            return body;
+        }
+    }
+
+    /**
+     * Latency histogram in microseconds with 32 linear buckets per power of two, about 3% precision
+     */
+    private static final class Latencies {
+
+        private static final int SUB_BUCKETS = 32;
+
+        private final long[] counts = new long[SUB_BUCKETS * 2 + SUB_BUCKETS * 40];
+
+        private long total;
+
+        private synchronized void record(long nanos) {
+            counts[bucket(Math.max(0, nanos / 1000))]++;
+            total++;
+        }
+
+        private synchronized Latencies drain() {
+            Latencies window = new Latencies();
+            System.arraycopy(counts, 0, window.counts, 0, counts.length);
+            window.total = total;
+            Arrays.fill(counts, 0);
+            total = 0;
+            return window;
+        }
+
+        private synchronized void add(Latencies other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+        }
+
+        /**
+         * Returns the latency at the quantile in milliseconds
+         */
+        private synchronized double percentile(double quantile) {
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return value(i) / 1e3;
+                }
+            }
+            return 0;
+        }
+
+        private static int bucket(long micros) {
+            if (micros < SUB_BUCKETS * 2) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int shift = exponent - 5;
+            int index = (shift + 1) * SUB_BUCKETS + (int) ((micros >> shift) & (SUB_BUCKETS - 1));
+            return Math.min(index, SUB_BUCKETS * 42 - 1);
+        }
+
+        private static long value(int bucket) {
+            if (bucket < SUB_BUCKETS * 2) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic event corpora looking like application logs, with a body of roughly
+ * the requested size and the requested number of headers.
+ */
+public final class Events {
+
+    public static final String CSV_FIELDS = "timestamp:timestamp,level,host,status:int,latency:double,message";
+
+    public static final String AVRO_SCHEMA = "{\"type\":\"record\",\"name\":\"Log\",\"fields\":["
+            + "{\"name\":\"timestamp\",\"type\":\"long\"},"
+            + "{\"name\":\"level\",\"type\":\"string\"},"
+            + "{\"name\":\"host\",\"type\":\"string\"},"
+            + "{\"name\":\"status\",\"type\":\"int\"},"
+            + "{\"name\":\"latency\",\"type\":\"double\"},"
+            + "{\"name\":\"message\",\"type\":[\"null\",\"string\"]}]}";
+
+    // distinct events per corpus, enough to defeat branch prediction on a single shape
+    public static final int CORPUS_SIZE = 1024;
+
+    private static final String[] LEVELS = {"INFO", "WARN", "ERROR", "DEBUG"};
+
+    private static final String[] HOSTS = {"web-01", "web-02", "api-01", "api-02", "batch-01"};
+
+    private static final String WORDS = "request served user session cache miss retry upstream timeout "
+            + "connection pool query index shard replica node cluster flush merge commit";
+
+    private Events() {
+    }
+
+    public static Event[] json(int bodySize, int headerCount) {
+        Random random = new Random(42);
+        Event[] events = new Event[CORPUS_SIZE];
+        for (int i = 0; i < events.length; i++) {
+            Line line = new Line(random, bodySize);
+            String body = "{\"timestamp\":" + line.timestamp + ",\"level\":\"" + line.level + "\",\"host\":\""
+                    + line.host + "\",\"status\":" + line.status + ",\"latency\":" + line.latency
+                    + ",\"message\":\"" + line.message + "\"}";
+            events[i] = EventBuilder.withBody(body.getBytes(StandardCharsets.UTF_8), headers(random, headerCount));
+        }
+        return events;
+    }
+
+    public static Event[] csv(int bodySize, int headerCount) {
+        Random random = new Random(42);
+        Event[] events = new Event[CORPUS_SIZE];
+        for (int i = 0; i < events.length; i++) {
+            Line line = new Line(random, bodySize);
+            String body = line.timestamp + "\t" + line.level + "\t" + line.host + "\t" + line.status
+                    + "\t" + line.latency + "\t" + line.message;
+            events[i] = EventBuilder.withBody(body.getBytes(StandardCharsets.UTF_8), headers(random, headerCount));
+        }
+        return events;
+    }
+
+    public static Event[] avro(int bodySize, int headerCount) throws IOException {
+        Random random = new Random(42);
+        Schema schema = new Schema.Parser().parse(AVRO_SCHEMA);
+        GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(schema);
+        Event[] events = new Event[CORPUS_SIZE];
+        for (int i = 0; i < events.length; i++) {
+            Line line = new Line(random, bodySize);
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("timestamp", line.timestamp);
+            record.put("level", line.level);
+            record.put("host", line.host);
+            record.put("status", line.status);
+            record.put("latency", line.latency);
+            record.put("message", line.message);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            writer.write(record, encoder);
+            encoder.flush();
+            events[i] = EventBuilder.withBody(out.toByteArray(), headers(random, headerCount));
+        }
+        return events;
+    }
+
+    /**
+     * Writes the avro schema to a temporary file for the serializer configuration
+     */
+    public static File avroSchemaFile() throws IOException {
+        File file = File.createTempFile("benchmark", ".avsc");
+        file.deleteOnExit();
+        Files.write(file.toPath(), AVRO_SCHEMA.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Header names of the corpora, the first ones are the ones indexers use
+     */
+    public static String header(int i) {
+        switch (i) {
+            case 0:
+                return "index";
+            case 1:
+                return "id";
+            case 2:
+                return "level";
+            case 3:
+                return "status";
+            default:
+                return "header" + i;
+        }
+    }
+
+    private static Map<String, String> headers(Random random, int headerCount) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            String value;
+            switch (i) {
+                case 0:
+                    value = "logs-" + HOSTS[random.nextInt(HOSTS.length)];
+                    break;
+                case 1:
+                    value = Long.toHexString(random.nextLong());
+                    break;
+                case 2:
+                    value = LEVELS[random.nextInt(LEVELS.length)];
+                    break;
+                case 3:
+                    value = String.valueOf(200 + random.nextInt(400));
+                    break;
+                default:
+                    value = "value-" + random.nextInt(1000);
+            }
+            headers.put(header(i), value);
+        }
+        return headers;
+    }
+
+    private static final class Line {
+
+        private final long timestamp;
+        private final String level;
+        private final String host;
+        private final int status;
+        private final double latency;
+        private final String message;
+
+        private Line(Random random, int bodySize) {
+            timestamp = 1500000000000L + random.nextInt(1000000000);
+            level = LEVELS[random.nextInt(LEVELS.length)];
+            host = HOSTS[random.nextInt(HOSTS.length)];
+            status = 200 + random.nextInt(400);
+            latency = random.nextInt(100000) / 100.0;
+            // the other fields take about 100 bytes
+            StringBuilder message = new StringBuilder();
+            String[] words = WORDS.split(" ");
+            while (message.length() < Math.max(8, bodySize - 100)) {
+                message.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            this.message = message.toString().trim();
+        }
+    }
+
+}
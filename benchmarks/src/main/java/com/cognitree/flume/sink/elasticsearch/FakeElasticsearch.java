@@ -0,0 +1,277 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An http server speaking enough of the elasticsearch API for the sink: ping, info, _nodes/http and _bulk.
+ * <p>
+ * Bulks are answered after the configured latency and each item is rejected with a 429 with the
+ * configured probability. The "ts" field of the indexed documents, if any, is handed to the
+ * acknowledgement listener so that callers can measure the enqueue to acknowledgement latency.
+ */
+public class FakeElasticsearch implements AutoCloseable {
+
+    private static final byte[] TS_FIELD = "\"ts\":".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] INDEX_FIELD = "\"_index\":\"".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final long latencyMillis;
+
+    private final double rejectRatio;
+
+    private final LongConsumer ackListener;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private final LongAdder bulks = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder indexed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public FakeElasticsearch(long latencyMillis, double rejectRatio, int threads, LongConsumer ackListener)
+            throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.rejectRatio = rejectRatio;
+        this.ackListener = ackListener;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getBulks() {
+        return bulks.sum();
+    }
+
+    /**
+     * Request body bytes received, as sent on the wire
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getIndexed() {
+        return indexed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            exchange.getResponseHeaders().add("X-Elastic-Product", "Elasticsearch");
+            if (path.endsWith("/_bulk")) {
+                bulk(exchange);
+            } else if (path.startsWith("/_nodes")) {
+                respond(exchange, 200, nodes());
+            } else if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+            } else if ("/".equals(path)) {
+                respond(exchange, 200, info());
+            } else {
+                respond(exchange, 404, "{\"error\":\"not found\",\"status\":404}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void bulk(HttpExchange exchange) throws IOException {
+        byte[] body = read(exchange);
+        bulks.increment();
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder items = new StringBuilder();
+        boolean errors = false;
+        int start = 0;
+        String index = null;
+        boolean action = true;
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] != '\n') {
+                continue;
+            }
+            if (action) {
+                index = stringField(body, start, i, INDEX_FIELD);
+            } else {
+                items.append(items.length() == 0 ? "" : ",");
+                if (random.nextDouble() < rejectRatio) {
+                    errors = true;
+                    rejected.increment();
+                    items.append("{\"index\":{\"_index\":\"").append(index).append("\",\"_type\":\"_doc\",")
+                            .append("\"_id\":\"").append(ids.incrementAndGet()).append("\",\"status\":429,")
+                            .append("\"error\":{\"type\":\"es_rejected_execution_exception\",")
+                            .append("\"reason\":\"rejected execution of bulk item\"}}}");
+                } else {
+                    indexed.increment();
+                    long id = ids.incrementAndGet();
+                    items.append("{\"index\":{\"_index\":\"").append(index).append("\",\"_type\":\"_doc\",")
+                            .append("\"_id\":\"").append(id).append("\",\"_version\":1,\"result\":\"created\",")
+                            .append("\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},")
+                            .append("\"_seq_no\":").append(id).append(",\"_primary_term\":1,\"status\":201}}");
+                    long ts = longField(body, start, i, TS_FIELD);
+                    if (ts != Long.MIN_VALUE) {
+                        ackListener.accept(ts);
+                    }
+                }
+            }
+            action = !action;
+            start = i + 1;
+        }
+        respond(exchange, 200, "{\"took\":" + Math.max(1, latencyMillis) + ",\"errors\":" + errors
+                + ",\"items\":[" + items + "]}");
+    }
+
+    private byte[] read(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        try (InputStream raw = exchange.getRequestBody()) {
+            int count;
+            CountingStream counting = new CountingStream(raw);
+            InputStream in = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                    ? new GZIPInputStream(counting) : counting;
+            while ((count = in.read(chunk)) > 0) {
+                out.write(chunk, 0, count);
+            }
+            bytes.add(counting.count);
+        }
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte[] field) {
+        outer:
+        for (int i = from; i <= to - field.length; i++) {
+            for (int j = 0; j < field.length; j++) {
+                if (bytes[i + j] != field[j]) {
+                    continue outer;
+                }
+            }
+            return i + field.length;
+        }
+        return -1;
+    }
+
+    private static String stringField(byte[] bytes, int from, int to, byte[] field) {
+        int start = indexOf(bytes, from, to, field);
+        if (start < 0) {
+            return "_na_";
+        }
+        int end = start;
+        while (end < to && bytes[end] != '"') {
+            end++;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static long longField(byte[] bytes, int from, int to, byte[] field) {
+        int i = indexOf(bytes, from, to, field);
+        if (i < 0) {
+            return Long.MIN_VALUE;
+        }
+        boolean negative = i < to && bytes[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long value = 0;
+        while (i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+            value = value * 10 + (bytes[i++] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String info() {
+        return "{\"name\":\"fake\",\"cluster_name\":\"fake\",\"cluster_uuid\":\"fake\",\"version\":{"
+                + "\"number\":\"7.17.7\",\"build_flavor\":\"default\",\"build_type\":\"tar\","
+                + "\"build_hash\":\"fake\",\"build_date\":\"2022-10-13T00:00:00.000Z\",\"build_snapshot\":false,"
+                + "\"lucene_version\":\"8.11.1\",\"minimum_wire_compatibility_version\":\"6.8.0\","
+                + "\"minimum_index_compatibility_version\":\"6.0.0-beta1\"},\"tagline\":\"You Know, for Search\"}";
+    }
+
+    private String nodes() {
+        String address = "127.0.0.1:" + getPort();
+        return "{\"_nodes\":{\"total\":1,\"successful\":1,\"failed\":0},\"cluster_name\":\"fake\",\"nodes\":{"
+                + "\"fake\":{\"name\":\"fake\",\"transport_address\":\"127.0.0.1:9300\",\"host\":\"127.0.0.1\","
+                + "\"ip\":\"127.0.0.1\",\"version\":\"7.17.7\",\"roles\":[\"data\",\"ingest\",\"master\"],"
+                + "\"http\":{\"bound_address\":[\"" + address + "\"],\"publish_address\":\"" + address + "\"}}}}";
+    }
+
+    private static final class CountingStream extends InputStream {
+
+        private final InputStream in;
+
+        private long count;
+
+        private CountingStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of choosing the index and id of an event with each indexer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexerBenchmark {
+
+    @Param({"5", "20"})
+    private int headerCount;
+
+    private Event[] events;
+
+    private Indexer staticIndexer;
+
+    private Indexer headerIndexer;
+
+    private Indexer templateIndexer;
+
+    private Indexer expressionIndexer;
+
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        events = Events.json(256, headerCount);
+
+        staticIndexer = new StaticIndexer();
+        Context staticContext = new Context();
+        staticContext.put("index", "logs");
+        staticIndexer.configure(staticContext);
+
+        headerIndexer = new HeaderIndexer();
+        Context header = new Context();
+        header.put("index.header", Events.header(0));
+        header.put("id.header", Events.header(1));
+        headerIndexer.configure(header);
+
+        templateIndexer = new TemplateIndexer();
+        Context template = new Context();
+        template.put("index.template", "${" + Events.header(0) + "}-${level}-${Y}.${M}.${D}");
+        template.put("id.template", "${" + Events.header(1) + "}");
+        templateIndexer.configure(template);
+
+        expressionIndexer = new ExpressionIndexer();
+        Context expression = new Context();
+        expression.put("index.expression", "'logs-' + lower(coalesce(body.level, 'info')) + '-' + "
+                + Events.header(0));
+        expression.put("id.expression", Events.header(1));
+        expressionIndexer.configure(expression);
+    }
+
+    private Event next() {
+        cursor = (cursor + 1) & (Events.CORPUS_SIZE - 1);
+        return events[cursor];
+    }
+
+    @Benchmark
+    public void staticIndexer(Blackhole blackhole) {
+        Event event = next();
+        blackhole.consume(staticIndexer.getIndex(event));
+        blackhole.consume(staticIndexer.getId(event));
+    }
+
+    @Benchmark
+    public void headerIndexer(Blackhole blackhole) {
+        Event event = next();
+        blackhole.consume(headerIndexer.getIndex(event));
+        blackhole.consume(headerIndexer.getId(event));
+    }
+
+    @Benchmark
+    public void templateIndexer(Blackhole blackhole) {
+        Event event = next();
+        blackhole.consume(templateIndexer.getIndex(event));
+        blackhole.consume(templateIndexer.getId(event));
+    }
+
+    @Benchmark
+    public void expressionIndexer(Blackhole blackhole) {
+        Event event = next();
+        blackhole.consume(expressionIndexer.getIndex(event));
+        blackhole.consume(expressionIndexer.getId(event));
+        expressionIndexer.release(event);
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.cognitree.flume.sink.elasticsearch.Constants.ES_AVRO_SCHEMA_FILE;
+
+/**
+ * Throughput of turning an event into its json source, run with -prof gc for the allocation rate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"128", "1024", "8192"})
+    private int bodySize;
+
+    @Param({"0", "5", "20"})
+    private int headerCount;
+
+    private Event[] jsonEvents;
+
+    private Event[] csvEvents;
+
+    private Event[] avroEvents;
+
+    private SimpleSerializer simpleSerializer;
+
+    private SimpleSerializer passthroughSerializer;
+
+    private CsvSerializer csvSerializer;
+
+    private AvroSerializer avroSerializer;
+
+    private int cursor;
+
+    @Setup
+    public void setup() throws Exception {
+        jsonEvents = Events.json(bodySize, headerCount);
+        csvEvents = Events.csv(bodySize, headerCount);
+        avroEvents = Events.avro(bodySize, headerCount);
+
+        simpleSerializer = new SimpleSerializer();
+        simpleSerializer.configure(new Context());
+
+        passthroughSerializer = new SimpleSerializer();
+        Context passthrough = new Context();
+        passthrough.put("json.passthrough", "true");
+        passthroughSerializer.configure(passthrough);
+
+        csvSerializer = new CsvSerializer();
+        Context csv = new Context();
+        csv.put("csv.fields", Events.CSV_FIELDS);
+        csv.put("headers", "*");
+        csvSerializer.configure(csv);
+
+        avroSerializer = new AvroSerializer();
+        Context avro = new Context();
+        avro.put(ES_AVRO_SCHEMA_FILE, Events.avroSchemaFile().getAbsolutePath());
+        avroSerializer.configure(avro);
+    }
+
+    private Event next(Event[] events) {
+        cursor = (cursor + 1) & (Events.CORPUS_SIZE - 1);
+        return events[cursor];
+    }
+
+    @Benchmark
+    public BytesReference simple() {
+        return simpleSerializer.toSource(next(jsonEvents));
+    }
+
+    @Benchmark
+    public BytesReference simplePassthrough() {
+        return passthroughSerializer.toSource(next(jsonEvents));
+    }
+
+    @Benchmark
+    public BytesReference csv() {
+        return csvSerializer.toSource(next(csvEvents));
+    }
+
+    @Benchmark
+    public BytesReference avro() {
+        return avroSerializer.toSource(next(avroEvents));
+    }
+
+}
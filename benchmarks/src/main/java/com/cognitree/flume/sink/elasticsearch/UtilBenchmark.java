@@ -0,0 +1,110 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Throughput of the field and template helpers shared by the serializers and indexers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilBenchmark {
+
+    @Param({"0", "5", "20"})
+    private int headerCount;
+
+    private Event[] events;
+
+    private CsvSerializer allHeaders;
+
+    private CsvSerializer typedHeaders;
+
+    private Map<String, Object> params;
+
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        events = Events.json(128, headerCount);
+        allHeaders = headerSerializer("*");
+        StringBuilder typed = new StringBuilder();
+        for (int i = 0; i < headerCount; i++) {
+            typed.append(i == 0 ? "" : ",").append(Events.header(i)).append(i == 3 ? ":int" : "");
+        }
+        typedHeaders = headerSerializer(headerCount == 0 ? "-" : typed.toString());
+        params = new HashMap<>(events[0].getHeaders());
+        params.put("Y", "2017");
+        params.put("M", "06");
+        params.put("D", "01");
+    }
+
+    private static CsvSerializer headerSerializer(String headers) {
+        CsvSerializer serializer = new CsvSerializer();
+        Context context = new Context();
+        context.put("csv.fields", Events.CSV_FIELDS);
+        context.put("headers", headers);
+        serializer.configure(context);
+        return serializer;
+    }
+
+    private Event next() {
+        cursor = (cursor + 1) & (Events.CORPUS_SIZE - 1);
+        return events[cursor];
+    }
+
+    @Benchmark
+    public BytesReference addAllHeaders() throws IOException {
+        XContentBuilder builder = jsonBuilder().startObject();
+        allHeaders.addHeaders(next(), builder);
+        return BytesReference.bytes(builder.endObject());
+    }
+
+    @Benchmark
+    public BytesReference addTypedHeaders() throws IOException {
+        XContentBuilder builder = jsonBuilder().startObject();
+        typedHeaders.addHeaders(next(), builder);
+        return BytesReference.bytes(builder.endObject());
+    }
+
+    @Benchmark
+    public BytesReference addField() throws IOException {
+        XContentBuilder builder = jsonBuilder().startObject();
+        Util.addField(builder, "message", "request served from cache", FieldType.STRING);
+        Util.addField(builder, "status", "200", FieldType.INT);
+        Util.addField(builder, "bytes", "1234567890123", FieldType.LONG);
+        Util.addField(builder, "latency", "12.75", FieldType.DOUBLE);
+        Util.addField(builder, "cached", "true", FieldType.BOOLEAN);
+        Util.addField(builder, "timestamp", "1500000000000", FieldType.TIMESTAMP);
+        return BytesReference.bytes(builder.endObject());
+    }
+
+    @Benchmark
+    public String template() {
+        return Util.template("logs-${index}-${Y}.${M}.${D}", params);
+    }
+
+}
@@ -1,16 +1,25 @@
 package com.cognitree.flume.sink.elasticsearch;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.elasticsearch.xcontent.XContentBuilder;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.cognitree.flume.sink.elasticsearch.Constants.COMMA;
 
+/**
+ * Adds the event headers to the document, all of them or the configured ones with their types.
+ * <p>
+ * The configured headers are compiled into arrays of keys, types and field names encoded once
+ * as json, and written straight to the json generator of the builder.
+ */
 @Slf4j
 public abstract class AddHeaderSerializer implements Serializer {
     public static final String HEADERS = "headers";
@@ -19,7 +28,18 @@ public abstract class AddHeaderSerializer implements Serializer {
 
     protected ActionEnum action;
 
-    private final Map<String, FieldType> header2Type = new HashMap<>();
+    // encoded names of the headers met in ALL mode, header names are few but not trusted
+    private static final int MAX_ENCODED_NAMES = 1024;
+
+    private final Map<String, FieldType> header2Type = new LinkedHashMap<>();
+
+    private String[] headerKeys = new String[0];
+
+    private FieldType[] headerTypes = new FieldType[0];
+
+    private SerializedString[] headerNames = new SerializedString[0];
+
+    private final Map<String, SerializedString> encodedNames = new ConcurrentHashMap<>();
 
     protected FieldType getHeaderType(String field) {
         return header2Type.get(field);
@@ -38,25 +58,93 @@ public abstract class AddHeaderSerializer implements Serializer {
     }
 
     protected void addHeaders(Event event, XContentBuilder contentBuilder) {
+        if (action == ActionEnum.NONE) {
+            return;
+        }
         Map<String, String> eventHeaders = event.getHeaders();
-        switch (action) {
-            case ALL:
-                eventHeaders.keySet().forEach(k -> {
-                    String value = eventHeaders.get(k);
-                    addField(contentBuilder, k, value);
-                });
-                break;
-            case INCLUDE:
-                header2Type.keySet().forEach(k -> {
-                    String value = eventHeaders.get(k);
-                    addField(contentBuilder, k, value);
-                });
-                break;
-            default:
-                break;
+        if (eventHeaders.isEmpty()) {
+            return;
+        }
+        JsonGenerator generator = Util.jsonGenerator(contentBuilder);
+        if (action == ActionEnum.ALL) {
+            boolean typed = !header2Type.isEmpty();
+            for (Map.Entry<String, String> header : eventHeaders.entrySet()) {
+                String key = header.getKey();
+                addField(contentBuilder, generator, key, encodedName(key), header.getValue(),
+                        typed ? header2Type.get(key) : null);
+            }
+        } else {
+            for (int i = 0; i < headerKeys.length; i++) {
+                addField(contentBuilder, generator, headerKeys[i], headerNames[i],
+                        eventHeaders.get(headerKeys[i]), headerTypes[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the field with its pre-encoded name when the generator is reachable. Values
+     * are parsed before the name is written, a value not matching its type throws
+     * NumberFormatException and leaves the document unchanged.
+     */
+    private void addField(XContentBuilder contentBuilder, JsonGenerator generator,
+                          String key, SerializedString name, String value, FieldType type) {
+        if (value == null) {
+            return;
+        }
+        try {
+            if (generator == null) {
+                Util.addField(contentBuilder, key, value, type);
+                return;
+            }
+            switch (type == null ? FieldType.STRING : type) {
+                case STRING:
+                    generator.writeFieldName(name);
+                    generator.writeString(value);
+                    break;
+                case INT:
+                    int intValue = Integer.parseInt(value);
+                    generator.writeFieldName(name);
+                    generator.writeNumber(intValue);
+                    break;
+                case LONG:
+                    long longValue = Long.parseLong(value);
+                    generator.writeFieldName(name);
+                    generator.writeNumber(longValue);
+                    break;
+                case FLOAT:
+                    float floatValue = Float.parseFloat(value);
+                    generator.writeFieldName(name);
+                    generator.writeNumber(floatValue);
+                    break;
+                case DOUBLE:
+                    double doubleValue = Double.parseDouble(value);
+                    generator.writeFieldName(name);
+                    generator.writeNumber(doubleValue);
+                    break;
+                case BOOLEAN:
+                    generator.writeFieldName(name);
+                    generator.writeBoolean(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    // dates go through the time formatting of the builder
+                    Util.addField(contentBuilder, key, value, type);
+            }
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
         }
     }
 
+    private SerializedString encodedName(String key) {
+        SerializedString name = encodedNames.get(key);
+        if (name == null) {
+            name = new SerializedString(key);
+            if (encodedNames.size() < MAX_ENCODED_NAMES) {
+                encodedNames.put(key, name);
+            }
+        }
+        return name;
+    }
+
     @Override
     public void configure(Context context) {
         String value = context.getString(HEADERS, NONE_HEADERS);
@@ -83,6 +171,13 @@ public abstract class AddHeaderSerializer implements Serializer {
                 header2Type.put(parts[0].trim(), FieldType.get(parts[1].trim()));
             }
         }
+        headerKeys = header2Type.keySet().toArray(new String[0]);
+        headerTypes = new FieldType[headerKeys.length];
+        headerNames = new SerializedString[headerKeys.length];
+        for (int i = 0; i < headerKeys.length; i++) {
+            headerTypes[i] = header2Type.get(headerKeys[i]);
+            headerNames[i] = new SerializedString(headerKeys[i]);
+        }
     }
 
     enum ActionEnum {
@@ -0,0 +1,233 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes avro binary datums of a record schema straight into an XContentBuilder.
+ * <p>
+ * The schema is compiled once into a tree of writers that read each value from the decoder
+ * and emit the matching token, without materializing a record. Strings are copied to the
+ * builder as UTF-8 bytes. Logical types are mapped to what elasticsearch understands:
+ * timestamp-millis and timestamp-micros to ISO-8601 instants, date to ISO-8601 dates and
+ * decimal to numbers. Bytes and fixed values keep the shapes of the avro rendering of records,
+ * which this serializer used to parse, so that existing mappings still accept them: bytes as an
+ * object holding a "bytes" string of ISO-8859-1 characters, fixed as an array of signed bytes.
+ * <p>
+ * Instances are thread safe, the per thread buffers are passed in a {@link Scratch}.
+ */
+final class AvroJsonWriter {
+
+    private static final DateTimeFormatter MILLIS = DateTimeFormatter
+            .ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSX").withZone(ZoneOffset.UTC);
+
+    private static final DateTimeFormatter MICROS = DateTimeFormatter
+            .ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSSSSX").withZone(ZoneOffset.UTC);
+
+    private final Schema schema;
+
+    private final long fingerprint;
+
+    private final Node root;
+
+    AvroJsonWriter(Schema schema) {
+        if (schema.getType() != Schema.Type.RECORD) {
+            throw new IllegalArgumentException("Avro schema " + schema.getFullName() + " is not a record");
+        }
+        this.schema = schema;
+        this.fingerprint = AvroSchemas.fingerprint(schema);
+        this.root = compile(schema, new IdentityHashMap<>());
+    }
+
+    Schema getSchema() {
+        return schema;
+    }
+
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Reads one record from the decoder and writes it as an object
+     */
+    void write(Decoder in, XContentBuilder out, Scratch scratch) throws IOException {
+        root.write(in, out, scratch);
+    }
+
+    /**
+     * Buffers reused across the values of a thread
+     */
+    static final class Scratch {
+
+        private final Utf8 utf8 = new Utf8();
+
+        private ByteBuffer bytes;
+    }
+
+    private interface Node {
+        void write(Decoder in, XContentBuilder out, Scratch scratch) throws IOException;
+    }
+
+    private static Node compile(Schema schema, Map<Schema, RecordNode> records) {
+        LogicalType logicalType = schema.getLogicalType();
+        switch (schema.getType()) {
+            case RECORD:
+                RecordNode record = records.get(schema);
+                if (record == null) {
+                    // registered before its fields are compiled, so that recursive schemas terminate
+                    record = new RecordNode(schema.getFields().size());
+                    records.put(schema, record);
+                    List<Schema.Field> fields = schema.getFields();
+                    for (int i = 0; i < fields.size(); i++) {
+                        record.names[i] = fields.get(i).name();
+                        record.values[i] = compile(fields.get(i).schema(), records);
+                    }
+                }
+                return record;
+            case ENUM:
+                List<String> symbols = schema.getEnumSymbols();
+                return (in, out, scratch) -> out.value(symbols.get(in.readEnum()));
+            case ARRAY:
+                Node element = compile(schema.getElementType(), records);
+                return (in, out, scratch) -> {
+                    out.startArray();
+                    for (long n = in.readArrayStart(); n != 0; n = in.arrayNext()) {
+                        for (long i = 0; i < n; i++) {
+                            element.write(in, out, scratch);
+                        }
+                    }
+                    out.endArray();
+                };
+            case MAP:
+                Node value = compile(schema.getValueType(), records);
+                return (in, out, scratch) -> {
+                    out.startObject();
+                    for (long n = in.readMapStart(); n != 0; n = in.mapNext()) {
+                        for (long i = 0; i < n; i++) {
+                            out.field(in.readString(scratch.utf8).toString());
+                            value.write(in, out, scratch);
+                        }
+                    }
+                    out.endObject();
+                };
+            case UNION:
+                List<Schema> types = schema.getTypes();
+                Node[] branches = new Node[types.size()];
+                for (int i = 0; i < branches.length; i++) {
+                    branches[i] = compile(types.get(i), records);
+                }
+                return (in, out, scratch) -> branches[in.readIndex()].write(in, out, scratch);
+            case FIXED:
+                int size = schema.getFixedSize();
+                if (logicalType instanceof LogicalTypes.Decimal) {
+                    int scale = ((LogicalTypes.Decimal) logicalType).getScale();
+                    return (in, out, scratch) -> {
+                        byte[] fixed = new byte[size];
+                        in.readFixed(fixed);
+                        out.value(new BigDecimal(new BigInteger(fixed), scale));
+                    };
+                }
+                return (in, out, scratch) -> {
+                    byte[] fixed = new byte[size];
+                    in.readFixed(fixed);
+                    out.startArray();
+                    for (byte b : fixed) {
+                        out.value(b);
+                    }
+                    out.endArray();
+                };
+            case STRING:
+                return (in, out, scratch) -> {
+                    Utf8 utf8 = in.readString(scratch.utf8);
+                    out.utf8Value(utf8.getBytes(), 0, utf8.getByteLength());
+                };
+            case BYTES:
+                if (logicalType instanceof LogicalTypes.Decimal) {
+                    int scale = ((LogicalTypes.Decimal) logicalType).getScale();
+                    return (in, out, scratch) -> {
+                        ByteBuffer bytes = scratch.bytes = in.readBytes(scratch.bytes);
+                        byte[] unscaled = new byte[bytes.remaining()];
+                        bytes.get(unscaled);
+                        out.value(new BigDecimal(new BigInteger(unscaled), scale));
+                    };
+                }
+                return (in, out, scratch) -> {
+                    ByteBuffer bytes = scratch.bytes = in.readBytes(scratch.bytes);
+                    out.startObject();
+                    out.field("bytes", new String(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                            bytes.remaining(), StandardCharsets.ISO_8859_1));
+                    out.endObject();
+                };
+            case INT:
+                if (logicalType instanceof LogicalTypes.Date) {
+                    return (in, out, scratch) -> out.value(LocalDate.ofEpochDay(in.readInt()).toString());
+                }
+                return (in, out, scratch) -> out.value(in.readInt());
+            case LONG:
+                if (logicalType instanceof LogicalTypes.TimestampMillis) {
+                    return (in, out, scratch) -> out.value(MILLIS.format(Instant.ofEpochMilli(in.readLong())));
+                }
+                if (logicalType instanceof LogicalTypes.TimestampMicros) {
+                    return (in, out, scratch) -> {
+                        long micros = in.readLong();
+                        out.value(MICROS.format(Instant.ofEpochSecond(Math.floorDiv(micros, 1000000L),
+                                Math.floorMod(micros, 1000000L) * 1000)));
+                    };
+                }
+                return (in, out, scratch) -> out.value(in.readLong());
+            case FLOAT:
+                return (in, out, scratch) -> out.value(in.readFloat());
+            case DOUBLE:
+                return (in, out, scratch) -> out.value(in.readDouble());
+            case BOOLEAN:
+                return (in, out, scratch) -> out.value(in.readBoolean());
+            case NULL:
+                return (in, out, scratch) -> {
+                    in.readNull();
+                    out.nullValue();
+                };
+            default:
+                throw new IllegalArgumentException("Unsupported avro type " + schema.getType());
+        }
+    }
+
+    private static final class RecordNode implements Node {
+
+        private final String[] names;
+
+        private final Node[] values;
+
+        private RecordNode(int fields) {
+            names = new String[fields];
+            values = new Node[fields];
+        }
+
+        @Override
+        public void write(Decoder in, XContentBuilder out, Scratch scratch) throws IOException {
+            out.startObject();
+            for (int i = 0; i < names.length; i++) {
+                out.field(names[i]);
+                values[i].write(in, out, scratch);
+            }
+            out.endObject();
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Avro writer schemas known to the serializer, by their 64-bit parsing fingerprint (CRC-64-AVRO)
+ * and by their full name.
+ * <p>
+ * Schemas are loaded from the .avsc files of a directory, which is scanned again for new files
+ * when an unknown fingerprint shows up, at most once every {@value #RESCAN_MILLIS}ms. The
+ * {@link AvroJsonWriter} compiled for a schema is kept in a bounded LRU cache keyed by fingerprint,
+ * so streams mixing schemas never parse nor compile a schema per event. The schemas embedded in
+ * container files are not registered: their writers live in a second LRU cache of the same size,
+ * keyed by the schema json, so senders embedding ever new schemas cannot grow the registry.
+ */
+@Slf4j
+final class AvroSchemas {
+
+    // marker of the avro single object encoding, followed by the little endian fingerprint
+    private static final byte MAGIC_0 = (byte) 0xC3;
+    private static final byte MAGIC_1 = (byte) 0x01;
+    static final int SINGLE_OBJECT_HEADER = 10;
+
+    private static final long RESCAN_MILLIS = 10000;
+
+    private static final String SCHEMA_SUFFIX = ".avsc";
+
+    private final File dir;
+
+    private final Map<Long, Schema> schemas = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> fingerprints = new ConcurrentHashMap<>();
+
+    private final Set<String> loadedFiles = new HashSet<>();
+
+    private final Map<Long, AvroJsonWriter> writers;
+
+    // writers of the schemas embedded in container bodies, by their json
+    private final Map<String, AvroJsonWriter> literals;
+
+    private volatile long lastScan;
+
+    AvroSchemas(File dir, int cacheSize) {
+        this.dir = dir;
+        this.writers = new LinkedHashMap<Long, AvroJsonWriter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, AvroJsonWriter> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.literals = new LinkedHashMap<String, AvroJsonWriter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AvroJsonWriter> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        if (dir != null) {
+            if (!dir.isDirectory()) {
+                throw new IllegalArgumentException("Avro schema directory " + dir + " does not exist");
+            }
+            scan();
+        }
+    }
+
+    static long fingerprint(Schema schema) {
+        return SchemaNormalization.parsingFingerprint64(schema);
+    }
+
+    /**
+     * Whether the body starts with the avro single object encoding header
+     */
+    static boolean isSingleObject(byte[] body) {
+        return isSingleObject(body, 0);
+    }
+
+    /**
+     * Whether the bytes at the offset start with the avro single object encoding header
+     */
+    static boolean isSingleObject(byte[] body, int offset) {
+        return body.length - offset >= SINGLE_OBJECT_HEADER && body[offset] == MAGIC_0 && body[offset + 1] == MAGIC_1;
+    }
+
+    static long singleObjectFingerprint(byte[] body) {
+        return singleObjectFingerprint(body, 0);
+    }
+
+    static long singleObjectFingerprint(byte[] body, int offset) {
+        long fingerprint = 0;
+        for (int i = offset + SINGLE_OBJECT_HEADER - 1; i >= offset + 2; i--) {
+            fingerprint = (fingerprint << 8) | (body[i] & 0xFF);
+        }
+        return fingerprint;
+    }
+
+    long add(Schema schema) {
+        long fingerprint = fingerprint(schema);
+        schemas.put(fingerprint, schema);
+        fingerprints.put(schema.getFullName(), fingerprint);
+        return fingerprint;
+    }
+
+    int size() {
+        return schemas.size();
+    }
+
+    /**
+     * Returns the writer of the schema with the fingerprint, null if the schema is unknown
+     */
+    AvroJsonWriter writer(long fingerprint) {
+        synchronized (writers) {
+            AvroJsonWriter writer = writers.get(fingerprint);
+            if (writer != null) {
+                return writer;
+            }
+        }
+        Schema schema = schemas.get(fingerprint);
+        if (schema == null && rescan()) {
+            schema = schemas.get(fingerprint);
+        }
+        if (schema == null) {
+            return null;
+        }
+        AvroJsonWriter writer = new AvroJsonWriter(schema);
+        synchronized (writers) {
+            writers.put(fingerprint, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Returns the writer of the schema with the given hexadecimal fingerprint or full name,
+     * null if the schema is unknown
+     */
+    AvroJsonWriter writer(String schemaId) {
+        Long fingerprint = fingerprints.get(schemaId);
+        if (fingerprint == null && rescan()) {
+            fingerprint = fingerprints.get(schemaId);
+        }
+        if (fingerprint != null) {
+            return writer(fingerprint);
+        }
+        try {
+            return writer(Long.parseUnsignedLong(schemaId, 16));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the writer of the schema given as json, as embedded in avro container files
+     */
+    AvroJsonWriter writerOf(String literal) {
+        AvroJsonWriter writer;
+        synchronized (literals) {
+            writer = literals.get(literal);
+        }
+        if (writer == null) {
+            writer = new AvroJsonWriter(new Schema.Parser().parse(literal));
+            synchronized (literals) {
+                literals.put(literal, writer);
+            }
+        }
+        return writer;
+    }
+
+    private boolean rescan() {
+        if (dir == null || System.currentTimeMillis() - lastScan < RESCAN_MILLIS) {
+            return false;
+        }
+        scan();
+        return true;
+    }
+
+    private synchronized void scan() {
+        lastScan = System.currentTimeMillis();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SCHEMA_SUFFIX));
+        if (files == null) {
+            log.error("Could not list the avro schema directory {}", dir);
+            return;
+        }
+        for (File file : files) {
+            if (loadedFiles.contains(file.getName())) {
+                continue;
+            }
+            try {
+                Schema schema = new Schema.Parser().parse(file);
+                long fingerprint = add(schema);
+                loadedFiles.add(file.getName());
+                log.info("Loaded avro schema {} with fingerprint {} from {}",
+                        schema.getFullName(), Long.toHexString(fingerprint), file);
+            } catch (IOException | RuntimeException e) {
+                // retried on the next scan, the file may still be being written
+                log.error("Could not parse the avro schema {}", file, e);
+            }
+        }
+    }
+
+}
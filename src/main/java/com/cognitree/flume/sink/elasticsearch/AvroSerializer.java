@@ -2,72 +2,312 @@ package com.cognitree.flume.sink.elasticsearch;
 
 import com.google.common.base.Throwables;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericDatumReader;
-import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.Decoder;
+import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
-import org.elasticsearch.xcontent.*;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.xcontent.XContentBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import static com.cognitree.flume.sink.elasticsearch.Constants.ES_AVRO_SCHEMA_FILE;
 import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
 
 /**
  * This Serializer assumes the event body to be in avro binary format
+ * <p>
+ * The body is decoded straight into the builder by an {@link AvroJsonWriter}
+ * compiled from the schema, with a decoder reused per thread.
+ * <p>
+ * The writer schema of each event is resolved in order from the avro single object
+ * encoding header of the body, from the schema header holding a fingerprint or a
+ * full name, and finally falls back to the configured schema file. A body starting with
+ * a single object header whose fingerprint is unknown is rejected rather than decoded
+ * with another schema. Schemas are
+ * looked up among the .avsc files of the schema directory and the schema file.
+ * <p>
+ * In multi record mode a body may hold several records, each indexed as its own document:
+ * concatenated datums of the schema of the event, each optionally preceded by its own single
+ * object header, or an avro object container file with the null or deflate codec, whose
+ * embedded schema is used.
  */
 public class AvroSerializer implements Serializer {
 
     private static final Logger logger = LoggerFactory.getLogger(AvroSerializer.class);
 
-    private DatumReader<GenericRecord> datumReader;
+    private static final String SCHEMA_FILE = "avro.schema.file";
+    private static final String SCHEMA_DIR = "avro.schema.dir";
+    private static final String SCHEMA_HEADER = "avro.schema.header";
+    private static final String DEFAULT_SCHEMA_HEADER = "flume.avro.schema.fingerprint";
+    private static final String SCHEMA_CACHE_SIZE = "avro.schema.cache.size";
+    private static final Integer DEFAULT_SCHEMA_CACHE_SIZE = 256;
+    private static final String RECORDS = "avro.records";
+    private static final String DEFAULT_RECORDS = "single";
+
+    private static final byte[] CONTAINER_MAGIC = {'O', 'b', 'j', 1};
+    private static final int SYNC_SIZE = 16;
+    private static final String SCHEMA_KEY = "avro.schema";
+    private static final String CODEC_KEY = "avro.codec";
+    private static final String NULL_CODEC = "null";
+    private static final String DEFLATE_CODEC = "deflate";
+
+    private final ThreadLocal<BinaryDecoder> decoders = new ThreadLocal<>();
+
+    private final ThreadLocal<BinaryDecoder> blockDecoders = new ThreadLocal<>();
+
+    private final ThreadLocal<AvroJsonWriter.Scratch> scratches = ThreadLocal.withInitial(AvroJsonWriter.Scratch::new);
+
+    private AvroSchemas schemas;
+
+    private AvroJsonWriter defaultWriter;
+
+    private String schemaHeader;
+
+    private boolean multiRecord;
 
     /**
      * Converts the avro binary data to the json format
      */
     @Override
     public XContentBuilder serialize(Event event) {
-        XContentBuilder builder = null;
+        AvroJsonWriter writer = resolve(event);
+        if (writer == null) {
+            return null;
+        }
         try {
-            if (datumReader != null) {
-                Decoder decoder = new DecoderFactory().binaryDecoder(event.getBody(), null);
-                GenericRecord data = datumReader.read(null, decoder);
-                logger.trace("Record in event " + data);
-                XContentParser parser = XContentFactory
-                        .xContent(XContentType.JSON)
-                        .createParser(NamedXContentRegistry.EMPTY,
-                                DeprecationHandler.THROW_UNSUPPORTED_OPERATION,
-                                data.toString());
-                builder = jsonBuilder().copyCurrentStructure(parser);
-                parser.close();
-            } else {
-                logger.error("Schema File is not configured");
-            }
-        } catch (IOException e) {
+            byte[] body = event.getBody();
+            int offset = headerLength(body);
+            BinaryDecoder decoder = decoder(body, offset, body.length - offset);
+            XContentBuilder builder = jsonBuilder();
+            writer.write(decoder, builder, scratches.get());
+            return builder;
+        } catch (Exception e) {
             logger.error("Exception in parsing avro format data but continuing serialization to process further records", e);
+            return null;
+        }
+    }
+
+    /**
+     * In multi record mode every record of the body becomes a document. A single object header
+     * before a record selects the schema of that record, the records without one are decoded with
+     * the schema of the event. Records decoded before a malformed one are kept.
+     */
+    @Override
+    public List<BytesReference> toSources(Event event) {
+        if (!multiRecord) {
+            return Serializer.super.toSources(event);
+        }
+        List<BytesReference> sources = new ArrayList<>();
+        try {
+            byte[] body = event.getBody();
+            if (isContainer(body)) {
+                readContainer(body, sources);
+                return sources;
+            }
+            AvroJsonWriter writer = resolve(event);
+            if (writer == null) {
+                return sources;
+            }
+            BinaryDecoder decoder = decoder(body, 0, body.length);
+            AvroJsonWriter.Scratch scratch = scratches.get();
+            while (!decoder.isEnd()) {
+                // the decoder reads straight from the body, what is left of it is not consumed yet
+                int offset = body.length - decoder.inputStream().available();
+                AvroJsonWriter recordWriter = writer;
+                if (AvroSchemas.isSingleObject(body, offset)) {
+                    long fingerprint = AvroSchemas.singleObjectFingerprint(body, offset);
+                    recordWriter = schemas.writer(fingerprint);
+                    if (recordWriter == null) {
+                        throw new IOException("Unknown avro schema fingerprint " + Long.toHexString(fingerprint)
+                                + " in the single object header of record " + sources.size());
+                    }
+                    offset += AvroSchemas.SINGLE_OBJECT_HEADER;
+                    decoder = decoder(body, offset, body.length - offset);
+                }
+                XContentBuilder builder = jsonBuilder();
+                recordWriter.write(decoder, builder, scratch);
+                sources.add(BytesReference.bytes(builder));
+            }
+        } catch (Exception e) {
+            logger.error("Exception in parsing avro format data after [{}] records, event is: {}",
+                    sources.size(), Util.dump(event), e);
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the writer of the schema of the event, null if it is unknown
+     */
+    private AvroJsonWriter resolve(Event event) {
+        if (schemas == null) {
+            logger.error("Schema File is not configured");
+            return null;
+        }
+        byte[] body = event.getBody();
+        if (AvroSchemas.isSingleObject(body)) {
+            long fingerprint = AvroSchemas.singleObjectFingerprint(body);
+            AvroJsonWriter writer = schemas.writer(fingerprint);
+            if (writer == null) {
+                logger.error("Unknown avro schema fingerprint [{}] in the single object header, event is: {}",
+                        Long.toHexString(fingerprint), Util.dump(event));
+            }
+            return writer;
+        }
+        String schemaId = event.getHeaders().get(schemaHeader);
+        if (schemaId != null) {
+            AvroJsonWriter writer = schemas.writer(schemaId);
+            if (writer == null) {
+                logger.error("Unknown avro schema [{}], event is: {}", schemaId, Util.dump(event));
+            }
+            return writer;
+        }
+        if (defaultWriter == null) {
+            logger.error("No avro schema for the event, event is: {}", Util.dump(event));
+        }
+        return defaultWriter;
+    }
+
+    private static int headerLength(byte[] body) {
+        return AvroSchemas.isSingleObject(body) ? AvroSchemas.SINGLE_OBJECT_HEADER : 0;
+    }
+
+    private BinaryDecoder decoder(byte[] bytes, int offset, int length) {
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(bytes, offset, length, decoders.get());
+        decoders.set(decoder);
+        return decoder;
+    }
+
+    private static boolean isContainer(byte[] body) {
+        if (body.length < CONTAINER_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < CONTAINER_MAGIC.length; i++) {
+            if (body[i] != CONTAINER_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the records of an avro object container file: a header holding the schema and
+     * the codec, followed by blocks of records each ended by the sync marker of the header.
+     */
+    private void readContainer(byte[] body, List<BytesReference> sources) throws IOException {
+        BinaryDecoder decoder = decoder(body, CONTAINER_MAGIC.length, body.length - CONTAINER_MAGIC.length);
+        String schema = null;
+        String codec = NULL_CODEC;
+        for (long n = decoder.readMapStart(); n != 0; n = decoder.mapNext()) {
+            for (long i = 0; i < n; i++) {
+                String key = decoder.readString();
+                ByteBuffer value = decoder.readBytes(null);
+                if (SCHEMA_KEY.equals(key)) {
+                    schema = StandardCharsets.UTF_8.decode(value).toString();
+                } else if (CODEC_KEY.equals(key)) {
+                    codec = StandardCharsets.UTF_8.decode(value).toString();
+                }
+            }
+        }
+        if (schema == null) {
+            throw new IOException("Avro container without schema");
+        }
+        if (!NULL_CODEC.equals(codec) && !DEFLATE_CODEC.equals(codec)) {
+            throw new IOException("Unsupported avro container codec " + codec);
+        }
+        byte[] sync = new byte[SYNC_SIZE];
+        decoder.readFixed(sync);
+        AvroJsonWriter writer = schemas.writerOf(schema);
+        AvroJsonWriter.Scratch scratch = scratches.get();
+        byte[] marker = new byte[SYNC_SIZE];
+        BinaryDecoder blockDecoder = blockDecoders.get();
+        while (!decoder.isEnd()) {
+            long count = decoder.readLong();
+            ByteBuffer block = decoder.readBytes(null);
+            byte[] data = block.array();
+            int offset = block.arrayOffset() + block.position();
+            int length = block.remaining();
+            if (DEFLATE_CODEC.equals(codec)) {
+                data = inflate(data, offset, length);
+                offset = 0;
+                length = data.length;
+            }
+            blockDecoder = DecoderFactory.get().binaryDecoder(data, offset, length, blockDecoder);
+            for (long i = 0; i < count; i++) {
+                XContentBuilder builder = jsonBuilder();
+                writer.write(blockDecoder, builder, scratch);
+                sources.add(BytesReference.bytes(builder));
+            }
+            decoder.readFixed(marker);
+            if (!Arrays.equals(sync, marker)) {
+                throw new IOException("Invalid sync marker in avro container");
+            }
+        }
+        blockDecoders.set(blockDecoder);
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, offset, length);
+            byte[] out = new byte[Math.max(64, length * 4)];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int inflated = inflater.inflate(out, size, out.length - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate block in avro container");
+                }
+                size += inflated;
+            }
+            return Arrays.copyOf(out, size);
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
         }
-        return builder;
     }
 
     @Override
     public void configure(Context context) {
-        String file = context.getString(ES_AVRO_SCHEMA_FILE);
-        if (file == null) {
+        // the full key is kept for configurations written against earlier versions
+        String file = context.getString(SCHEMA_FILE, context.getString(ES_AVRO_SCHEMA_FILE));
+        String dir = context.getString(SCHEMA_DIR);
+        if (file == null && dir == null) {
             Throwables.propagate(new Exception("Schema file is not configured, " +
-                    "please configure the property " + ES_AVRO_SCHEMA_FILE));
+                    "please configure the property " + ES_AVRO_SCHEMA_FILE + " or " + Serializer.PREFIX
+                    + "." + SCHEMA_DIR));
+        }
+        schemaHeader = context.getString(SCHEMA_HEADER, DEFAULT_SCHEMA_HEADER);
+        String records = context.getString(RECORDS, DEFAULT_RECORDS);
+        if (!"single".equalsIgnoreCase(records) && !"multi".equalsIgnoreCase(records)) {
+            throw new IllegalArgumentException(RECORDS + " must be single or multi, not " + records);
         }
+        multiRecord = "multi".equalsIgnoreCase(records);
         try {
-            Schema schema = new Schema.Parser().parse(new File(file));
-            datumReader = new GenericDatumReader<>(schema);
+            schemas = new AvroSchemas(dir == null ? null : new File(dir),
+                    context.getInteger(SCHEMA_CACHE_SIZE, DEFAULT_SCHEMA_CACHE_SIZE));
+            if (file != null) {
+                Schema schema = new Schema.Parser().parse(new File(file));
+                defaultWriter = schemas.writer(schemas.add(schema));
+            }
         } catch (IOException e) {
             logger.error("Error in parsing schema file ", e);
             Throwables.propagate(e);
         }
+        logger.info("Avro Serializer: schema file [{}], schema directory [{}] with [{}] schemas, header [{}], "
+                + "records [{}]", file, dir, schemas.size(), schemaHeader, records);
     }
 }
@@ -0,0 +1,107 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The fields of json bodies read by expressions, by their dotted path.
+ * <p>
+ * The paths are kept in a tree, the body is read with a streaming parser in a single pass that
+ * skips the subtrees holding no path and stops as soon as every path has been found, so fields at
+ * the start of large bodies cost a few tokens. Only scalar values are read, objects and arrays at
+ * a path read as null, as do bodies which are not json objects.
+ */
+@Slf4j
+final class BodyFields {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final PathNode root = new PathNode();
+
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    /**
+     * Registers the path, returns the slot of its value in the extracted values
+     */
+    int add(String path) {
+        Integer slot = slots.get(path);
+        if (slot != null) {
+            return slot;
+        }
+        slot = slots.size();
+        PathNode node = root;
+        for (String name : path.split("\\.")) {
+            node = node.children.computeIfAbsent(name, n -> new PathNode());
+        }
+        node.slot = slot;
+        slots.put(path, slot);
+        return slot;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * Reads the values of the registered paths from the body
+     */
+    String[] extract(byte[] body) {
+        String[] values = new String[slots.size()];
+        if (values.length == 0 || body == null || body.length == 0) {
+            return values;
+        }
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                scan(parser, root, values, new int[]{values.length});
+            }
+        } catch (IOException e) {
+            // the values found before the malformed token are kept
+            log.debug("Could not read the fields of the body", e);
+        }
+        return values;
+    }
+
+    /**
+     * Reads the object the parser is on, returns false once every path has been found
+     */
+    private static boolean scan(JsonParser parser, PathNode node, String[] values, int[] remaining)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            PathNode child = node.children.get(parser.getCurrentName());
+            JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+                continue;
+            }
+            if (token == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+                if (!scan(parser, child, values, remaining)) {
+                    return false;
+                }
+                continue;
+            }
+            if (token.isScalarValue() && token != JsonToken.VALUE_NULL && child.slot >= 0
+                    && values[child.slot] == null) {
+                values[child.slot] = parser.getText();
+                if (--remaining[0] == 0) {
+                    return false;
+                }
+            }
+            parser.skipChildren();
+        }
+        return true;
+    }
+
+    private static final class PathNode {
+
+        private final Map<String, PathNode> children = new HashMap<>();
+
+        private int slot = -1;
+    }
+
+}
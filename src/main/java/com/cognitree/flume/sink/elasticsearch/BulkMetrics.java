@@ -0,0 +1,237 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Latency and size distributions of the bulk requests.
+ * <p>
+ * Values are recorded without locking into HdrHistogram recorders by the bulk listener threads,
+ * readers swap the recorders and accumulate their interval into the totals. The metrics are
+ * registered as com.cognitree.flume.sink.elasticsearch:type=BulkMetrics,name=[sink] rather than
+ * in the org.apache.flume domain, whose beans the flume monitoring expects to hold flat counters.
+ */
+@Slf4j
+public class BulkMetrics implements BulkMetricsMXBean {
+
+    private static final String DOMAIN = "com.cognitree.flume.sink.elasticsearch";
+
+    // elasticsearch has a few dozen error types, anything beyond is a parsing accident
+    private static final int MAX_ERROR_TYPES = 64;
+
+    private static final String OTHER = "other";
+
+    private static final Pattern ERROR_TYPE = Pattern.compile("\\[type=([^,\\]]+)");
+
+    private final String name;
+
+    private final Distribution latency = new Distribution(3, 1e-3);
+
+    private final Distribution bytes = new Distribution(2, 1);
+
+    private final Distribution actions = new Distribution(2, 1);
+
+    private final Distribution failedItems = new Distribution(2, 1);
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private final LongAdder bulkFailures = new LongAdder();
+
+    private final Map<String, LongAdder> itemFailures = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    public BulkMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void onBulkStart() {
+        inFlight.increment();
+    }
+
+    /**
+     * Records a bulk that got a response, the failed items are counted separately by type
+     */
+    public void onBulk(long nanos, int actionCount, long byteCount, int failedCount) {
+        inFlight.decrement();
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        bytes.record(byteCount);
+        actions.record(actionCount);
+        failedItems.record(failedCount);
+    }
+
+    public void onBulkFailure(long nanos, int actionCount, long byteCount) {
+        inFlight.decrement();
+        bulkFailures.increment();
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        bytes.record(byteCount);
+        actions.record(actionCount);
+    }
+
+    public void onItemFailure(Exception cause) {
+        String type = errorType(cause);
+        LongAdder count = itemFailures.get(type);
+        if (count == null) {
+            if (itemFailures.size() >= MAX_ERROR_TYPES) {
+                type = OTHER;
+            }
+            count = itemFailures.computeIfAbsent(type, t -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * Returns the elasticsearch error type of a bulk item failure. The client parses the
+     * failures of the response into exceptions whose message is
+     * "Elasticsearch exception [type=..., reason=...]".
+     */
+    static String errorType(Exception cause) {
+        if (cause == null) {
+            return OTHER;
+        }
+        String message = cause.getMessage();
+        if (message != null) {
+            Matcher matcher = ERROR_TYPE.matcher(message);
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+        return cause.getClass().getSimpleName();
+    }
+
+    @Override
+    public Snapshot getBulkLatencyMillis() {
+        return latency.snapshot();
+    }
+
+    @Override
+    public Snapshot getBulkBytes() {
+        return bytes.snapshot();
+    }
+
+    @Override
+    public Snapshot getBulkActions() {
+        return actions.snapshot();
+    }
+
+    @Override
+    public Snapshot getBulkFailedItems() {
+        return failedItems.snapshot();
+    }
+
+    @Override
+    public long getBulksInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getBulkFailures() {
+        return bulkFailures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getItemFailures() {
+        Map<String, Long> failures = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : itemFailures.entrySet()) {
+            failures.put(entry.getKey(), entry.getValue().sum());
+        }
+        return failures;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        bytes.reset();
+        actions.reset();
+        failedItems.reset();
+        bulkFailures.reset();
+        itemFailures.clear();
+    }
+
+    public void start() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(DOMAIN + ":type=BulkMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            log.error("Failed to register the bulk metrics of [{}]", name, e);
+            objectName = null;
+        }
+    }
+
+    public void stop() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("Failed to unregister the bulk metrics of [{}]", name, e);
+        }
+        objectName = null;
+    }
+
+    private static final class Distribution {
+
+        private final Recorder recorder;
+
+        private final Histogram total;
+
+        private final LongAdder sum = new LongAdder();
+
+        private final double scale;
+
+        private Histogram interval;
+
+        private Distribution(int significantDigits, double scale) {
+            this.recorder = new Recorder(significantDigits);
+            this.total = new Histogram(significantDigits);
+            this.scale = scale;
+        }
+
+        private void record(long value) {
+            long clamped = Math.max(0, value);
+            recorder.recordValue(clamped);
+            sum.add(clamped);
+        }
+
+        private synchronized Snapshot snapshot() {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            long count = total.getTotalCount();
+            if (count == 0) {
+                return new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0);
+            }
+            return new Snapshot(count, sum.sum() * scale, total.getMinValue() * scale,
+                    total.getMean() * scale, total.getValueAtPercentile(50) * scale,
+                    total.getValueAtPercentile(90) * scale, total.getValueAtPercentile(99) * scale,
+                    total.getValueAtPercentile(99.9) * scale, total.getMaxValue() * scale);
+        }
+
+        private synchronized void reset() {
+            recorder.reset();
+            total.reset();
+            sum.reset();
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import java.util.Map;
+
+/**
+ * Distributions of the bulk requests of the elasticsearch sink since start or the last reset
+ */
+public interface BulkMetricsMXBean {
+
+    /**
+     * Time in milliseconds from handing a bulk to the client to its response, backoff retries included
+     */
+    Snapshot getBulkLatencyMillis();
+
+    /**
+     * Estimated size in bytes of the bulk requests before compression
+     */
+    Snapshot getBulkBytes();
+
+    Snapshot getBulkActions();
+
+    /**
+     * Number of failed items per completed bulk
+     */
+    Snapshot getBulkFailedItems();
+
+    long getBulksInFlight();
+
+    /**
+     * Number of bulks that failed as a whole, ex: the connection was refused
+     */
+    long getBulkFailures();
+
+    /**
+     * Number of failed bulk items by elasticsearch error type, ex: es_rejected_execution_exception
+     */
+    Map<String, Long> getItemFailures();
+
+    void reset();
+
+    /**
+     * Summary of a distribution
+     */
+    final class Snapshot {
+
+        private final long count;
+        private final double sum;
+        private final double min;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        public Snapshot(long count, double sum, double min, double mean,
+                        double p50, double p90, double p99, double p999, double max) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
@@ -34,6 +34,92 @@ public class Constants {
     public static final String ES_BACKOFF_POLICY_RETRIES = "es.backoff.policy.retries";
     public static final Integer DEFAULT_ES_BACKOFF_POLICY_RETRIES = 8;
 
+    public static final String ES_BULK_ENCODER = "es.bulk.encoder";
+    public static final String DEFAULT_ES_BULK_ENCODER = "client";
+
+    public static final String ES_COMPRESSION_ENABLED = "es.compression.enabled";
+
+    public static final String ES_COMPRESSION_LEVEL = "es.compression.level";
+    public static final Integer DEFAULT_ES_COMPRESSION_LEVEL = 3;
+
+    public static final String ES_COMPRESSION_THRESHOLD = "es.compression.threshold";
+    public static final Integer DEFAULT_ES_COMPRESSION_THRESHOLD = 1024;
+
+    public static final String ES_BULK_STREAMS = "es.bulk.streams";
+    public static final String DEFAULT_ES_BULK_STREAMS = "shared";
+
+    public static final String ES_BULK_STREAMS_GROUPS = "es.bulk.streams.groups";
+
+    public static final String ES_BULK_STREAMS_MAX = "es.bulk.streams.max";
+    public static final Integer DEFAULT_ES_BULK_STREAMS_MAX = 32;
+
+    public static final String ES_BULK_STREAMS_IDLE = "es.bulk.streams.idle";
+    public static final String DEFAULT_ES_BULK_STREAMS_IDLE = "5m";
+
+    public static final String ES_BULK_ADAPTIVE = "es.bulk.adaptive";
+
+    public static final String ES_BULK_ADAPTIVE_MIN_ACTIONS = "es.bulk.adaptive.min.actions";
+    public static final Integer DEFAULT_ES_BULK_ADAPTIVE_MIN_ACTIONS = 100;
+
+    public static final String ES_BULK_ADAPTIVE_MAX_ACTIONS = "es.bulk.adaptive.max.actions";
+    public static final Integer DEFAULT_ES_BULK_ADAPTIVE_MAX_ACTIONS = 10000;
+
+    public static final String ES_BULK_ADAPTIVE_INCREASE = "es.bulk.adaptive.increase";
+    public static final Integer DEFAULT_ES_BULK_ADAPTIVE_INCREASE = 100;
+
+    public static final String ES_BULK_ADAPTIVE_DECREASE = "es.bulk.adaptive.decrease";
+    public static final Double DEFAULT_ES_BULK_ADAPTIVE_DECREASE = 0.5;
+
+    public static final String ES_BULK_ADAPTIVE_TARGET_LATENCY = "es.bulk.adaptive.target.latency";
+    public static final String DEFAULT_ES_BULK_ADAPTIVE_TARGET_LATENCY = "1s";
+
+    public static final String ES_RETRY_ENABLED = "es.retry.enabled";
+
+    public static final String ES_RETRY_QUEUE_SIZE = "es.retry.queue.size";
+    public static final Integer DEFAULT_ES_RETRY_QUEUE_SIZE = 10000;
+
+    public static final String ES_RETRY_MAX_ATTEMPTS = "es.retry.max.attempts";
+    public static final Integer DEFAULT_ES_RETRY_MAX_ATTEMPTS = 5;
+
+    public static final String ES_RETRY_BACKOFF = "es.retry.backoff";
+    public static final String DEFAULT_ES_RETRY_BACKOFF = "100M";
+
+    public static final String ES_RETRY_BACKOFF_MAX = "es.retry.backoff.max";
+    public static final String DEFAULT_ES_RETRY_BACKOFF_MAX = "30s";
+
+    public static final String ES_DLQ_DIR = "es.dlq.dir";
+
+    public static final String ES_DLQ_SEGMENT_SIZE = "es.dlq.segment.size";
+    public static final Integer DEFAULT_ES_DLQ_SEGMENT_SIZE = 64;
+
+    public static final String ES_DLQ_SEGMENT_AGE = "es.dlq.segment.age";
+    public static final String DEFAULT_ES_DLQ_SEGMENT_AGE = "60m";
+
+    public static final String ES_DLQ_MAX_SIZE = "es.dlq.max.size";
+    public static final Long DEFAULT_ES_DLQ_MAX_SIZE = 1024L;
+
+    public static final String ES_DLQ_QUEUE_SIZE = "es.dlq.queue.size";
+    public static final Integer DEFAULT_ES_DLQ_QUEUE_SIZE = 10000;
+
+    public static final String ES_HEALTH_PROBE_INTERVAL = "es.health.probe.interval";
+    public static final String DEFAULT_ES_HEALTH_PROBE_INTERVAL = "1s";
+
+    public static final String ES_HEALTH_PROBE_INTERVAL_MAX = "es.health.probe.interval.max";
+    public static final String DEFAULT_ES_HEALTH_PROBE_INTERVAL_MAX = "60s";
+
+    public static final String ES_METRICS_PROMETHEUS_PORT = "es.metrics.prometheus.port";
+
+    public static final String ES_SERIALIZE_PARALLELISM = "es.serialize.parallelism";
+    public static final Integer DEFAULT_ES_SERIALIZE_PARALLELISM = 1;
+
+    public static final String ES_ACK_COMMIT = "es.ack.commit";
+
+    public static final String ES_ACK_TRANSACTIONS = "es.ack.transactions";
+    public static final Integer DEFAULT_ES_ACK_TRANSACTIONS = 4;
+
+    public static final String ES_ACK_TIMEOUT = "es.ack.timeout";
+    public static final String DEFAULT_ES_ACK_TIMEOUT = "60s";
+
     public static final String ES_INDEX = "es.index";
     public static final String DEFAULT_ES_INDEX = "default";
 
@@ -48,6 +134,41 @@ public class Constants {
 
     public static final Integer DEFAULT_ES_PORT = 9300;
 
+    public static final String ES_CLIENT_MAX_CONNECTIONS = "es.client.max.connections";
+    public static final Integer DEFAULT_ES_CLIENT_MAX_CONNECTIONS = 30;
+
+    public static final String ES_CLIENT_MAX_CONNECTIONS_PER_ROUTE = "es.client.max.connections.per.route";
+    public static final Integer DEFAULT_ES_CLIENT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+    public static final String ES_CLIENT_IO_THREADS = "es.client.io.threads";
+
+    public static final String ES_CLIENT_CONNECT_TIMEOUT = "es.client.connect.timeout";
+    public static final String DEFAULT_ES_CLIENT_CONNECT_TIMEOUT = "1s";
+
+    public static final String ES_CLIENT_SOCKET_TIMEOUT = "es.client.socket.timeout";
+    public static final String DEFAULT_ES_CLIENT_SOCKET_TIMEOUT = "30s";
+
+    public static final String ES_CLIENT_CONNECTION_REQUEST_TIMEOUT = "es.client.connection.request.timeout";
+
+    public static final String ES_CLIENT_KEEP_ALIVE = "es.client.keep.alive";
+
+    public static final String ES_CLIENT_SNIFF = "es.client.sniff";
+
+    public static final String ES_CLIENT_SNIFF_INTERVAL = "es.client.sniff.interval";
+    public static final String DEFAULT_ES_CLIENT_SNIFF_INTERVAL = "5m";
+
+    public static final String ES_CLIENT_SNIFF_FAILURE_DELAY = "es.client.sniff.failure.delay";
+    public static final String DEFAULT_ES_CLIENT_SNIFF_FAILURE_DELAY = "1m";
+
+    public static final String ES_CLIENT_SNIFF_FILTER = "es.client.sniff.filter";
+    public static final String DEFAULT_ES_CLIENT_SNIFF_FILTER = "data";
+
+    public static final String ES_CLIENT_NODE_SELECTOR = "es.client.node.selector";
+    public static final String DEFAULT_ES_CLIENT_NODE_SELECTOR = "any";
+
+    public static final String ES_CLIENT_NODE_COOLDOWN = "es.client.node.cooldown";
+    public static final String DEFAULT_ES_CLIENT_NODE_COOLDOWN = "30s";
+
     public static final String ES_CSV_FIELDS = "es.serializer.csv.fields";
 
     public static final String ES_AVRO_SCHEMA_FILE = "es.serializer.avro.schema.file";
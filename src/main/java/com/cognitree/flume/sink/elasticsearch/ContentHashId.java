@@ -0,0 +1,87 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang.StringUtils;
+import org.apache.flume.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static com.cognitree.flume.sink.elasticsearch.Constants.COMMA;
+
+/**
+ * Document ids derived from the content of the event, so that an event delivered or retried
+ * twice overwrites its first copy instead of being indexed again.
+ * <p>
+ * The id is the 128-bit murmur3 hash of the configured headers and of the body, in this order,
+ * encoded in 22 url safe base64 characters. Each value is preceded by its length, and missing
+ * headers by -1, so that values moving between fields never collide. The body is hashed in place.
+ * Changing the fields changes every id.
+ */
+final class ContentHashId {
+
+    /**
+     * The field standing for the event body
+     */
+    static final String BODY = "@body";
+
+    private static final HashFunction MURMUR3 = Hashing.murmur3_128();
+
+    private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+    private final String[] headers;
+
+    private final boolean body;
+
+    private ContentHashId(String[] headers, boolean body) {
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Parses comma separated header names and {@value #BODY}, returns null if blank
+     */
+    static ContentHashId parse(String fields) {
+        if (StringUtils.isBlank(fields)) {
+            return null;
+        }
+        List<String> headers = new ArrayList<>();
+        boolean body = false;
+        for (String field : fields.split(COMMA)) {
+            field = field.trim();
+            if (BODY.equals(field)) {
+                body = true;
+            } else if (!field.isEmpty()) {
+                headers.add(field);
+            }
+        }
+        return new ContentHashId(headers.toArray(new String[0]), body);
+    }
+
+    String of(Event event) {
+        Hasher hasher = MURMUR3.newHasher();
+        for (String header : headers) {
+            String value = event.getHeaders().get(header);
+            if (value == null) {
+                hasher.putInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                hasher.putInt(bytes.length).putBytes(bytes);
+            }
+        }
+        if (body) {
+            byte[] bytes = event.getBody();
+            int length = bytes == null ? 0 : bytes.length;
+            hasher.putInt(length);
+            if (length > 0) {
+                hasher.putBytes(bytes, 0, length);
+            }
+        }
+        return BASE64.encodeToString(hasher.hash().asBytes());
+    }
+
+}
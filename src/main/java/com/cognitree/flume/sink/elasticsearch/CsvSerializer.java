@@ -7,34 +7,47 @@ import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.elasticsearch.xcontent.XContentBuilder;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
 
 import static com.cognitree.flume.sink.elasticsearch.Constants.COLONS;
 import static com.cognitree.flume.sink.elasticsearch.Constants.COMMA;
 import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
 
+/**
+ * Indexes the fields of a delimited body, the body is indexed as is in a body field
+ * when it does not match the configured fields.
+ */
 @Slf4j
 public class CsvSerializer extends AddHeaderSerializer {
 
     private static final String FIELDS = "csv.fields";
     private static final String DELIMITER = "csv.delimiter";
     private static final String DEFAULT_DELIMITER = "\t";
+    private static final String QUOTE = "csv.quote";
+    private static final String DEFAULT_QUOTE = "\"";
 
-    private final List<String> names = new ArrayList<>();
-    private final List<FieldType> types = new ArrayList<>();
+    private String[] names;
+    private FieldType[] types;
 
-    private String delimiter;
+    private CsvTokenizer tokenizer;
+
+    private ThreadLocal<CsvTokenizer.Row> rows;
 
     @Override
     public XContentBuilder serialize(Event event) {
+        CsvTokenizer.Row row = rows.get();
+        String error = parse(event.getBody(), row);
+        if (error != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Indexing the raw body, {}, event is: {}", error, Util.dump(event));
+            }
+            return rawSerialize(event);
+        }
         try {
             XContentBuilder builder = jsonBuilder().startObject();
             //body
-            String body = new String(event.getBody(), Charsets.UTF_8);
-            String[] values = body.split(delimiter);
-            for (int i = 0; i < names.size(); i++) {
-                Util.addField(builder, names.get(i), values[i], types.get(i));
+            for (int i = 0; i < names.length; i++) {
+                addField(builder, i, row);
             }
             //headers
             addHeaders(event, builder);
@@ -45,6 +58,90 @@ public class CsvSerializer extends AddHeaderSerializer {
         }
     }
 
+    /**
+     * Splits the body and parses the typed fields, returns why the body does not match
+     * the configured fields or null if it does
+     */
+    private String parse(byte[] body, CsvTokenizer.Row row) {
+        int count = tokenizer.tokenize(body, row);
+        if (count < 0) {
+            return "malformed quoted field";
+        }
+        if (count < names.length) {
+            return "found " + count + " of " + names.length + " fields";
+        }
+        for (int i = 0; i < names.length; i++) {
+            boolean parsed;
+            switch (types[i]) {
+                case INT:
+                    parsed = row.parseInt(i);
+                    break;
+                case LONG:
+                case TIMESTAMP:
+                    parsed = row.parseLong(i);
+                    break;
+                case FLOAT:
+                    parsed = row.parseFloat(i);
+                    break;
+                case DOUBLE:
+                    parsed = row.parseDouble(i);
+                    break;
+                case BOOLEAN:
+                    parsed = row.parseBoolean(i);
+                    break;
+                default:
+                    parsed = true;
+            }
+            if (!parsed) {
+                return "field " + names[i] + " is not a " + types[i];
+            }
+        }
+        return null;
+    }
+
+    private void addField(XContentBuilder builder, int i, CsvTokenizer.Row row) throws IOException {
+        String name = names[i];
+        switch (types[i]) {
+            case INT:
+                builder.field(name, row.intValue(i));
+                break;
+            case LONG:
+                builder.field(name, row.longValue(i));
+                break;
+            case FLOAT:
+                builder.field(name, row.floatValue(i));
+                break;
+            case DOUBLE:
+                builder.field(name, row.doubleValue(i));
+                break;
+            case BOOLEAN:
+                builder.field(name, row.booleanValue(i));
+                break;
+            case DATE:
+                builder.timeField(name, string(i, row));
+                break;
+            case TIMESTAMP:
+                builder.timeField(name, row.longValue(i));
+                break;
+            default:
+                if (!row.escaped(i) && row.ascii(i)) {
+                    // ascii is valid utf-8, the generator escapes it without decoding
+                    builder.field(name).utf8Value(row.bytes(), row.start(i), row.length(i));
+                } else {
+                    builder.field(name, string(i, row));
+                }
+        }
+    }
+
+    private String string(int i, CsvTokenizer.Row row) {
+        String value = row.string(i);
+        if (row.escaped(i)) {
+            String quote = String.valueOf((char) tokenizer.getQuote());
+            value = value.replace(quote + quote, quote);
+        }
+        return value;
+    }
+
     @Override
     public void configure(Context context) {
         super.configure(context);
@@ -54,18 +151,23 @@ public class CsvSerializer extends AddHeaderSerializer {
                     " please configured the property " + FIELDS);
         }
         try {
-            delimiter = context.getString(DELIMITER, DEFAULT_DELIMITER);
+            tokenizer = new CsvTokenizer(context.getString(DELIMITER, DEFAULT_DELIMITER),
+                    context.getString(QUOTE, DEFAULT_QUOTE));
             String[] fieldTypes = fields.split(COMMA);
-            for (String fieldType : fieldTypes) {
-                String[] parts = fieldType.split(COLONS);
+            names = new String[fieldTypes.length];
+            types = new FieldType[fieldTypes.length];
+            for (int i = 0; i < fieldTypes.length; i++) {
+                String[] parts = fieldTypes[i].split(COLONS);
                 if (parts.length == 1) {
-                    names.add(fieldType);
-                    types.add(FieldType.STRING);
+                    names[i] = fieldTypes[i];
+                    types[i] = FieldType.STRING;
                 } else {
-                    names.add(parts[0]);
-                    types.add(FieldType.get(parts[1]));
+                    names[i] = parts[0];
+                    types[i] = FieldType.get(parts[1]);
                 }
             }
+            int count = names.length;
+            rows = ThreadLocal.withInitial(() -> new CsvTokenizer.Row(count));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
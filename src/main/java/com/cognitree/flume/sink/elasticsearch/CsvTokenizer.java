@@ -0,0 +1,341 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a csv row in a single pass over its UTF-8 bytes and parses the typed fields
+ * straight from the byte ranges.
+ * <p>
+ * The delimiter is matched literally and may span several bytes. A field starting with
+ * the quote character runs until the next lone quote, two quotes inside it stand for one.
+ * Malformed rows and values are reported through return values instead of exceptions.
+ */
+final class CsvTokenizer {
+
+    private static final double[] DOUBLE_POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    // mantissas up to these bounds and the powers of ten above are exact, so one division rounds correctly
+    private static final long MAX_DOUBLE_MANTISSA = 1L << 53;
+
+    private static final long MAX_FLOAT_MANTISSA = 1L << 24;
+
+    private final byte[] delimiter;
+
+    private final int quote;
+
+    /**
+     * @param quote the quote character, quoting is disabled if null or empty
+     */
+    CsvTokenizer(String delimiter, String quote) {
+        if (delimiter == null || delimiter.isEmpty()) {
+            throw new IllegalArgumentException("The csv delimiter must not be empty");
+        }
+        this.delimiter = delimiter.getBytes(StandardCharsets.UTF_8);
+        if (quote == null || quote.isEmpty()) {
+            this.quote = -1;
+        } else if (quote.length() == 1 && quote.charAt(0) < 0x80) {
+            this.quote = quote.charAt(0);
+        } else {
+            throw new IllegalArgumentException("The csv quote must be a single ascii character: " + quote);
+        }
+    }
+
+    int getQuote() {
+        return quote;
+    }
+
+    /**
+     * Finds up to as many fields as the row holds, further fields are ignored.
+     * Returns the number of fields found or -1 if a quoted field is malformed.
+     */
+    int tokenize(byte[] bytes, Row row) {
+        row.bytes = bytes;
+        int length = bytes.length;
+        int pos = 0;
+        int count = 0;
+        while (count < row.starts.length) {
+            if (quote >= 0 && pos < length && bytes[pos] == quote) {
+                int start = pos + 1;
+                int i = start;
+                boolean escaped = false;
+                while (true) {
+                    if (i >= length) {
+                        return -1;
+                    }
+                    if (bytes[i] == quote) {
+                        if (i + 1 < length && bytes[i + 1] == quote) {
+                            escaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                row.set(count++, start, i, escaped);
+                pos = i + 1;
+                if (pos == length) {
+                    return count;
+                }
+                if (!delimiterAt(bytes, pos)) {
+                    return -1;
+                }
+                pos += delimiter.length;
+            } else {
+                int end = indexOfDelimiter(bytes, pos);
+                if (end < 0) {
+                    row.set(count++, pos, length, false);
+                    return count;
+                }
+                row.set(count++, pos, end, false);
+                pos = end + delimiter.length;
+            }
+        }
+        return count;
+    }
+
+    private int indexOfDelimiter(byte[] bytes, int from) {
+        byte first = delimiter[0];
+        int last = bytes.length - delimiter.length;
+        for (int i = from; i <= last; i++) {
+            if (bytes[i] == first && (delimiter.length == 1 || delimiterAt(bytes, i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean delimiterAt(byte[] bytes, int pos) {
+        if (pos + delimiter.length > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length; i++) {
+            if (bytes[pos + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Byte ranges of the fields of a row and the values parsed from them, meant to be reused
+     */
+    static final class Row {
+
+        private final int[] starts;
+
+        private final int[] ends;
+
+        private final boolean[] escaped;
+
+        private final long[] values;
+
+        private byte[] bytes;
+
+        // sign and number of fraction digits of the last decimalMantissa call
+        private boolean negative;
+
+        private int scale;
+
+        Row(int fields) {
+            starts = new int[fields];
+            ends = new int[fields];
+            escaped = new boolean[fields];
+            values = new long[fields];
+        }
+
+        private void set(int field, int start, int end, boolean isEscaped) {
+            starts[field] = start;
+            ends[field] = end;
+            escaped[field] = isEscaped;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int start(int field) {
+            return starts[field];
+        }
+
+        int length(int field) {
+            return ends[field] - starts[field];
+        }
+
+        /**
+         * Whether the field is quoted and holds doubled quotes
+         */
+        boolean escaped(int field) {
+            return escaped[field];
+        }
+
+        boolean ascii(int field) {
+            for (int i = starts[field]; i < ends[field]; i++) {
+                if (bytes[i] < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String string(int field) {
+            return new String(bytes, starts[field], length(field), StandardCharsets.UTF_8);
+        }
+
+        long longValue(int field) {
+            return values[field];
+        }
+
+        int intValue(int field) {
+            return (int) values[field];
+        }
+
+        double doubleValue(int field) {
+            return Double.longBitsToDouble(values[field]);
+        }
+
+        float floatValue(int field) {
+            return Float.intBitsToFloat((int) values[field]);
+        }
+
+        boolean booleanValue(int field) {
+            return values[field] != 0;
+        }
+
+        /**
+         * Parses a decimal long with an optional sign, as {@link Long#parseLong(String)} does
+         */
+        boolean parseLong(int field) {
+            int i = starts[field];
+            int end = ends[field];
+            if (i == end) {
+                return false;
+            }
+            boolean minus = bytes[i] == '-';
+            if (minus || bytes[i] == '+') {
+                i++;
+                if (i == end) {
+                    return false;
+                }
+            }
+            // accumulates negatively so that Long.MIN_VALUE fits
+            long limit = minus ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long multiplyMin = limit / 10;
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9 || value < multiplyMin) {
+                    return false;
+                }
+                value *= 10;
+                if (value < limit + digit) {
+                    return false;
+                }
+                value -= digit;
+            }
+            values[field] = minus ? value : -value;
+            return true;
+        }
+
+        boolean parseInt(int field) {
+            if (!parseLong(field)) {
+                return false;
+            }
+            long value = values[field];
+            return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+        }
+
+        boolean parseDouble(int field) {
+            long mantissa = decimalMantissa(field, MAX_DOUBLE_MANTISSA, DOUBLE_POW10.length - 1);
+            double value;
+            if (mantissa >= 0) {
+                value = mantissa / DOUBLE_POW10[scale];
+            } else {
+                try {
+                    value = Double.parseDouble(string(field));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            values[field] = Double.doubleToRawLongBits(negative ? -value : value);
+            return true;
+        }
+
+        boolean parseFloat(int field) {
+            long mantissa = decimalMantissa(field, MAX_FLOAT_MANTISSA, FLOAT_POW10.length - 1);
+            float value;
+            if (mantissa >= 0) {
+                value = mantissa / FLOAT_POW10[scale];
+            } else {
+                try {
+                    value = Float.parseFloat(string(field));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            values[field] = Float.floatToRawIntBits(negative ? -value : value);
+            return true;
+        }
+
+        /**
+         * True for "true" in any case and false otherwise, as {@link Boolean#parseBoolean(String)} does
+         */
+        boolean parseBoolean(int field) {
+            int i = starts[field];
+            values[field] = ends[field] - i == 4
+                    && (bytes[i] | 0x20) == 't' && (bytes[i + 1] | 0x20) == 'r'
+                    && (bytes[i + 2] | 0x20) == 'u' && (bytes[i + 3] | 0x20) == 'e' ? 1 : 0;
+            return true;
+        }
+
+        /**
+         * Reads a plain decimal like -12.345 as its digits and scale. Returns -1 for other
+         * syntaxes and for values that the fast path cannot round exactly, the sign is then
+         * left to the slow path.
+         */
+        private long decimalMantissa(int field, long maxMantissa, int maxScale) {
+            int i = starts[field];
+            int end = ends[field];
+            negative = false;
+            scale = 0;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negative = bytes[i] == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            boolean point = false;
+            for (; i < end; i++) {
+                byte b = bytes[i];
+                if (b == '.' && !point) {
+                    point = true;
+                    continue;
+                }
+                int digit = b - '0';
+                if (digit < 0 || digit > 9) {
+                    negative = false;
+                    return -1;
+                }
+                mantissa = mantissa * 10 + digit;
+                digits++;
+                if (point) {
+                    scale++;
+                }
+                if (mantissa > maxMantissa || scale > maxScale) {
+                    negative = false;
+                    return -1;
+                }
+            }
+            if (digits == 0) {
+                negative = false;
+                return -1;
+            }
+            return mantissa;
+        }
+    }
+
+}
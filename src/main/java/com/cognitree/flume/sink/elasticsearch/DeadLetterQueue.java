@@ -0,0 +1,359 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flume.Context;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.cognitree.flume.sink.elasticsearch.Constants.*;
+
+/**
+ * Append-only store of the documents elasticsearch refused permanently.
+ * <p>
+ * Documents are queued by the bulk listener and written by a single thread into
+ * memory-mapped segment files named dlq-[sequence].seg. A segment is rolled when it is
+ * full or older than the configured age, and the oldest segments are deleted once the
+ * directory outgrows its budget. When the queue is full documents are dropped and counted,
+ * so a burst of bad documents never blocks indexing. A callback given with a document learns
+ * whether it reached its segment or was dropped.
+ * <p>
+ * Each entry is laid out as: int length of the rest of the entry, long timestamp,
+ * short index length, index, short id length (-1 without id), id, int source length,
+ * source, short reason length, reason. A zero length marks the end of a segment.
+ */
+@Slf4j
+public class DeadLetterQueue {
+
+    private static final String SEGMENT_PREFIX = "dlq-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int MAX_SHORT_FIELD = Short.MAX_VALUE;
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    private final long segmentAgeMillis;
+
+    private final long maxBytes;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final ElasticSearchSinkCounter sinkCounter;
+
+    private long sequence;
+
+    private RandomAccessFile segmentFile;
+
+    private MappedByteBuffer segment;
+
+    private long segmentCreated;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    DeadLetterQueue(File dir, int segmentSize, long segmentAgeMillis, long maxBytes,
+                    int queueSize, ElasticSearchSinkCounter sinkCounter) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.segmentAgeMillis = segmentAgeMillis;
+        this.maxBytes = maxBytes;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.sinkCounter = sinkCounter;
+    }
+
+    /**
+     * Returns the dead letter queue configured in the context, null if none is configured
+     */
+    public static DeadLetterQueue create(Context context, ElasticSearchSinkCounter sinkCounter) {
+        String dir = Util.getContextValue(context, ES_DLQ_DIR);
+        if (dir == null) {
+            return null;
+        }
+        DeadLetterQueue deadLetterQueue = new DeadLetterQueue(new File(dir),
+                context.getInteger(ES_DLQ_SEGMENT_SIZE, DEFAULT_ES_DLQ_SEGMENT_SIZE) * 1024 * 1024,
+                Util.getTimeValue(context.getString(ES_DLQ_SEGMENT_AGE), DEFAULT_ES_DLQ_SEGMENT_AGE).millis(),
+                context.getLong(ES_DLQ_MAX_SIZE, DEFAULT_ES_DLQ_MAX_SIZE) * 1024 * 1024,
+                context.getInteger(ES_DLQ_QUEUE_SIZE, DEFAULT_ES_DLQ_QUEUE_SIZE),
+                sinkCounter);
+        log.info("Dead letter queue: dir [{}], segment size [{}], max size [{}]",
+                dir, deadLetterQueue.segmentSize, deadLetterQueue.maxBytes);
+        return deadLetterQueue;
+    }
+
+    /**
+     * Queues a document to be written, returns false if it had to be dropped
+     */
+    public boolean offer(String index, String id, BytesReference source, String reason) {
+        return offer(index, id, source, reason, null);
+    }
+
+    /**
+     * Queues a document to be written, returns false if it had to be dropped. The callback, if
+     * any, is called with true once the document is written to its segment and with false if it
+     * is dropped, from the writer thread or from the calling thread when the queue is full.
+     */
+    public boolean offer(String index, String id, BytesReference source, String reason, Consumer<Boolean> stored) {
+        if (running && queue.offer(new Entry(System.currentTimeMillis(), index, id, source, reason, stored))) {
+            return true;
+        }
+        sinkCounter.incrementDeadLetterDroppedCount();
+        notify(stored, false);
+        return false;
+    }
+
+    public void start(String name) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create dead letter queue directory " + dir);
+        }
+        File[] segments = listSegments(dir);
+        sequence = segments.length == 0 ? 0 : sequenceOf(segments[segments.length - 1]) + 1;
+        running = true;
+        writer = new Thread(this::run, name + "-dlq");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes the queued documents and closes the current segment
+     */
+    public void stop() {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (running || !queue.isEmpty()) {
+                Entry entry = queue.poll(1, TimeUnit.SECONDS);
+                if (entry != null) {
+                    write(entry);
+                }
+                if (segment != null && System.currentTimeMillis() - segmentCreated >= segmentAgeMillis) {
+                    closeSegment();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSegment();
+            // entries left behind after the stop timeout are never written
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                sinkCounter.incrementDeadLetterDroppedCount();
+                notify(entry.stored, false);
+            }
+        }
+    }
+
+    private void write(Entry entry) {
+        byte[] index = truncate(entry.index.getBytes(StandardCharsets.UTF_8));
+        byte[] id = entry.id == null ? null : truncate(entry.id.getBytes(StandardCharsets.UTF_8));
+        byte[] reason = truncate(entry.reason.getBytes(StandardCharsets.UTF_8));
+        int length = 8 + 2 + index.length + 2 + (id == null ? 0 : id.length)
+                + 4 + entry.source.length() + 2 + reason.length;
+        if (4 + length > segmentSize) {
+            log.error("Document of {} bytes for index [{}] does not fit in a dead letter segment",
+                    entry.source.length(), entry.index);
+            sinkCounter.incrementDeadLetterDroppedCount();
+            notify(entry.stored, false);
+            return;
+        }
+        try {
+            if (segment == null || segment.remaining() < 4 + length) {
+                closeSegment();
+                openSegment();
+            }
+            segment.putInt(length);
+            segment.putLong(entry.timestamp);
+            segment.putShort((short) index.length).put(index);
+            if (id == null) {
+                segment.putShort((short) -1);
+            } else {
+                segment.putShort((short) id.length).put(id);
+            }
+            segment.putInt(entry.source.length());
+            BytesRefIterator iterator = entry.source.iterator();
+            BytesRef ref;
+            while ((ref = iterator.next()) != null) {
+                segment.put(ref.bytes, ref.offset, ref.length);
+            }
+            segment.putShort((short) reason.length).put(reason);
+            sinkCounter.incrementDeadLetterWrittenCount();
+        } catch (IOException e) {
+            log.error("Could not write to dead letter queue, document for index [{}] is lost", entry.index, e);
+            sinkCounter.incrementDeadLetterDroppedCount();
+            closeSegment();
+            notify(entry.stored, false);
+            return;
+        }
+        notify(entry.stored, true);
+    }
+
+    private static void notify(Consumer<Boolean> stored, boolean written) {
+        if (stored == null) {
+            return;
+        }
+        try {
+            stored.accept(written);
+        } catch (RuntimeException e) {
+            log.error("Dead letter callback failed", e);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        File file = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, sequence++, SEGMENT_SUFFIX));
+        segmentFile = new RandomAccessFile(file, "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segmentCreated = System.currentTimeMillis();
+        enforceMaxSize();
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            int written = segment.position();
+            segment.force();
+            // keep the end marker so the trailing bytes are never read as an entry
+            segmentFile.getChannel().truncate(Math.min(segmentSize, written + 4));
+            segmentFile.close();
+        } catch (IOException e) {
+            log.error("Could not close dead letter segment", e);
+        } finally {
+            segment = null;
+            segmentFile = null;
+        }
+    }
+
+    /**
+     * Deletes the oldest closed segments until the directory fits in its budget
+     */
+    private void enforceMaxSize() {
+        File[] segments = listSegments(dir);
+        long total = 0;
+        for (File file : segments) {
+            total += file.length();
+        }
+        // the last segment is the one just opened
+        for (int i = 0; i < segments.length - 1 && total > maxBytes; i++) {
+            total -= segments[i].length();
+            if (!segments[i].delete()) {
+                log.warn("Could not delete dead letter segment {}", segments[i]);
+            }
+        }
+    }
+
+    private static byte[] truncate(byte[] bytes) {
+        return bytes.length <= MAX_SHORT_FIELD ? bytes : Arrays.copyOf(bytes, MAX_SHORT_FIELD);
+    }
+
+    static File[] listSegments(File dir) {
+        File[] segments = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Reads back the entries of a segment
+     */
+    public static void read(File segment, Consumer<Entry> consumer) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length <= 0) {
+                    return;
+                }
+                long timestamp = buffer.getLong();
+                String index = readString(buffer, buffer.getShort());
+                short idLength = buffer.getShort();
+                String id = idLength < 0 ? null : readString(buffer, idLength);
+                byte[] source = new byte[buffer.getInt()];
+                buffer.get(source);
+                String reason = readString(buffer, buffer.getShort());
+                consumer.accept(new Entry(timestamp, index, id, new BytesArray(source), reason));
+            }
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static final class Entry {
+
+        private final long timestamp;
+        private final String index;
+        private final String id;
+        private final BytesReference source;
+        private final String reason;
+        private final Consumer<Boolean> stored;
+
+        Entry(long timestamp, String index, String id, BytesReference source, String reason) {
+            this(timestamp, index, id, source, reason, null);
+        }
+
+        Entry(long timestamp, String index, String id, BytesReference source, String reason,
+              Consumer<Boolean> stored) {
+            this.timestamp = timestamp;
+            this.index = index;
+            this.id = id;
+            this.source = source;
+            this.reason = reason == null ? "" : reason;
+            this.stored = stored;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public BytesReference getSource() {
+            return source;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+}
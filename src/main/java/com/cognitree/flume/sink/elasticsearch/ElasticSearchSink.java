@@ -15,30 +15,43 @@
  */
 package com.cognitree.flume.sink.elasticsearch;
 
+import com.cognitree.flume.sink.elasticsearch.client.AckTracker;
+import com.cognitree.flume.sink.elasticsearch.client.BulkCompressor;
 import com.cognitree.flume.sink.elasticsearch.client.BulkProcessorBuilder;
+import com.cognitree.flume.sink.elasticsearch.client.BulkRetryQueue;
+import com.cognitree.flume.sink.elasticsearch.client.BulkStreams;
+import com.cognitree.flume.sink.elasticsearch.client.ConnectionMonitor;
 import com.cognitree.flume.sink.elasticsearch.client.ElasticsearchClientBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Channel;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
 import org.apache.flume.Transaction;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.instrumentation.SinkCounter;
 import org.apache.flume.sink.AbstractSink;
-import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.client.transport.NoNodeAvailableException;
-import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.xcontent.XContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.cognitree.flume.sink.elasticsearch.Constants.*;
 import static com.cognitree.flume.sink.elasticsearch.Indexer.DEFAULT_INDEXER;
@@ -54,57 +67,160 @@ public class ElasticSearchSink extends AbstractSink implements Configurable {
 
     private static final Logger LOG = LoggerFactory.getLogger(ElasticSearchSink.class);
 
-    private static final int CHECK_CONNECTION_PERIOD = 3000;
+    private static final long PARK_MILLIS = 1000;
 
-    private final AtomicBoolean shouldBackOff = new AtomicBoolean(false);
     private BulkProcessorBuilder bulkProcessorBuilder;
     private ElasticsearchClientBuilder clientBuilder;
-    private BulkProcessor bulkProcessor;
+    private BulkStreams bulkStreams;
     private Indexer indexer;
     private Serializer serializer;
     private RestHighLevelClient client;
-    private SinkCounter sinkCounter;
+    private ElasticSearchSinkCounter sinkCounter;
+    private BulkMetrics bulkMetrics;
+    private Integer prometheusPort;
+    private PrometheusEndpoint prometheusEndpoint;
     private int batchSize = 100;
-
+    private int serializeParallelism;
+    private ExecutorService serializerPool;
+    private BulkRetryQueue retryQueue;
+    private DeadLetterQueue deadLetterQueue;
+    private BulkCompressor bulkCompressor;
+    private ConnectionMonitor connectionMonitor;
+    private long probeInterval;
+    private long probeIntervalMax;
+    private AckTracker ackTracker;
+    private int ackTransactions;
+    private TimeValue ackTimeout;
+    private ExecutorService ackLanes;
+    private Semaphore ackLaneSlots;
+    private final AtomicInteger waitingLanes = new AtomicInteger();
+    private volatile Status lastLaneStatus = Status.READY;
 
     public RestHighLevelClient getClient() {
         return client;
     }
 
+    public AckTracker getAckTracker() {
+        return ackTracker;
+    }
+
+    public BulkRetryQueue getRetryQueue() {
+        return retryQueue;
+    }
+
+    public DeadLetterQueue getDeadLetterQueue() {
+        return deadLetterQueue;
+    }
+
+    public BulkCompressor getBulkCompressor() {
+        return bulkCompressor;
+    }
+
+    public ElasticSearchSinkCounter getSinkCounter() {
+        return sinkCounter;
+    }
+
+    public BulkMetrics getBulkMetrics() {
+        return bulkMetrics;
+    }
+
     @Override
     public void configure(Context context) {
+        if (sinkCounter == null) {
+            sinkCounter = new ElasticSearchSinkCounter(getName());
+        }
+        if (bulkMetrics == null) {
+            bulkMetrics = new BulkMetrics(getName());
+        }
+        prometheusPort = context.getInteger(ES_METRICS_PROMETHEUS_PORT);
         String[] hosts = getHosts(context);
         if (ArrayUtils.isNotEmpty(hosts)) {
             String clusterName = context.getString(ES_CLUSTER_NAME, DEFAULT_CLUSTER_NAME);
-            clientBuilder = new ElasticsearchClientBuilder(clusterName, hosts);
+            clientBuilder = new ElasticsearchClientBuilder(clusterName, hosts, context);
             bulkProcessorBuilder = BulkProcessorBuilder.builder(context);
+            bulkStreams = BulkStreams.create(context, sinkCounter);
+            retryQueue = BulkRetryQueue.create(context);
+            deadLetterQueue = DeadLetterQueue.create(context, sinkCounter);
+            bulkCompressor = BulkCompressor.create(context, sinkCounter);
+            probeInterval = Util.getTimeValue(context.getString(ES_HEALTH_PROBE_INTERVAL),
+                    DEFAULT_ES_HEALTH_PROBE_INTERVAL).millis();
+            probeIntervalMax = Util.getTimeValue(context.getString(ES_HEALTH_PROBE_INTERVAL_MAX),
+                    DEFAULT_ES_HEALTH_PROBE_INTERVAL_MAX).millis();
+            serializeParallelism = context.getInteger(ES_SERIALIZE_PARALLELISM,
+                    DEFAULT_ES_SERIALIZE_PARALLELISM);
+            if (context.getBoolean(ES_ACK_COMMIT, false)) {
+                ackTracker = new AckTracker();
+                ackTransactions = context.getInteger(ES_ACK_TRANSACTIONS, DEFAULT_ES_ACK_TRANSACTIONS);
+                ackTimeout = Util.getTimeValue(context.getString(ES_ACK_TIMEOUT), DEFAULT_ES_ACK_TIMEOUT);
+            }
             buildIndexer(context);
             buildSerializer(context);
         } else {
             LOG.error("Could not create Rest client, No host exist");
         }
-        if (sinkCounter == null) {
-            sinkCounter = new SinkCounter(getName());
-        }
     }
 
     @Override
     public Status process() {
-        if (shouldBackOff.get()) {
-            throw new NoNodeAvailableException("Check whether Elasticsearch is down or not.");
+        try {
+            // park cheaply while the connection circuit is open
+            if (!connectionMonitor.await(PARK_MILLIS)) {
+                return Status.BACKOFF;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Status.BACKOFF;
+        }
+        if (ackLanes == null) {
+            return drain() < 0 ? Status.BACKOFF : Status.READY;
+        }
+        try {
+            ackLaneSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Status.BACKOFF;
+        }
+        try {
+            ackLanes.execute(() -> {
+                try {
+                    lastLaneStatus = drain() > 0 ? Status.READY : Status.BACKOFF;
+                } finally {
+                    ackLaneSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ackLaneSlots.release();
+            return Status.BACKOFF;
         }
+        return lastLaneStatus;
+    }
+
+    /**
+     * Takes a batch from the channel in its own transaction and sinks it.
+     * When commits are coupled to acknowledgements this runs on a transaction lane
+     * and the transaction is committed only after elasticsearch acknowledged the batch.
+     *
+     * @return the number of events committed, -1 if the transaction was rolled back
+     */
+    private int drain() {
         Channel channel = getChannel();
         Transaction txn = channel.getTransaction();
         txn.begin();
         int total = 0;
         try {
+            List<Event> events = new ArrayList<>(batchSize);
             for (int i = 0; i < batchSize; i++) {
                 Event event = channel.take();
                 if (event != null) {
                     total++;
-                    sink(event);
+                    events.add(event);
                 }
             }
+            AckTracker.Batch batch = ackTracker == null ? null : ackTracker.newBatch();
+            sink(events, batch);
+            if (batch != null) {
+                awaitAck(batch, total < batchSize);
+            }
             if (total == 0) {
                 sinkCounter.incrementBatchEmptyCount();
             } else if (total < batchSize) {
@@ -114,7 +230,7 @@ public class ElasticSearchSink extends AbstractSink implements Configurable {
             }
             txn.commit();
             sinkCounter.addToEventDrainSuccessCount(total);
-            return Status.READY;
+            return total;
         } catch (Throwable tx) {
             sinkCounter.incrementEventWriteOrChannelFail(tx);
             try {
@@ -123,42 +239,162 @@ public class ElasticSearchSink extends AbstractSink implements Configurable {
                 LOG.error("exception in rollback.", ex);
             }
             LOG.error("transaction rolled back.", tx);
-            return Status.BACKOFF;
+            return -1;
         } finally {
             txn.close();
         }
     }
 
-    private void sink(Event event) {
-        String index = indexer.getIndex(event);
-        if (index == null) {
-            LOG.debug("Sink event ignored, event is: {}", Util.dump(event));
+    /**
+     * Serializes the events and adds them to the bulk processor in the order they were taken.
+     * With a serializer pool the batch is split into contiguous slices serialized in parallel,
+     * the requests are still handed to the bulk processor from the sink thread, once every slice
+     * is serialized: a failing slice fails the batch before any of its requests is sent.
+     */
+    private void sink(List<Event> events, AckTracker.Batch batch) throws Exception {
+        if (serializerPool == null || events.size() < 2) {
+            for (IndexRequest request : toRequests(events)) {
+                add(request, batch);
+            }
             return;
         }
+        int size = events.size();
+        int slice = (size + serializeParallelism - 1) / serializeParallelism;
+        List<Future<List<IndexRequest>>> futures = new ArrayList<>(serializeParallelism);
+        for (int from = 0; from < size; from += slice) {
+            List<Event> part = events.subList(from, Math.min(size, from + slice));
+            futures.add(serializerPool.submit(() -> toRequests(part)));
+        }
+        List<List<IndexRequest>> slices = new ArrayList<>(futures.size());
+        try {
+            for (Future<List<IndexRequest>> future : futures) {
+                slices.add(future.get());
+            }
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        for (List<IndexRequest> requests : slices) {
+            for (IndexRequest request : requests) {
+                add(request, batch);
+            }
+        }
+    }
+
+    private void add(DocWriteRequest<?> request, AckTracker.Batch batch) {
+        if (batch != null) {
+            ackTracker.track(request, batch);
+        }
+        bulkStreams.add(request);
+    }
+
+    /**
+     * Waits for the batch to be acknowledged. The bulk is flushed right away when the channel
+     * is drained or when every transaction lane is waiting, as nothing else would fill it.
+     */
+    private void awaitAck(AckTracker.Batch batch, boolean drained)
+            throws EventDeliveryException, InterruptedException {
+        batch.seal();
+        int waiting = waitingLanes.incrementAndGet();
+        try {
+            if (drained || waiting >= ackTransactions) {
+                bulkStreams.flush();
+            }
+            batch.await(ackTimeout.millis(), TimeUnit.MILLISECONDS);
+        } finally {
+            waitingLanes.decrementAndGet();
+        }
+    }
+
+    private List<IndexRequest> toRequests(List<Event> events) {
+        List<IndexRequest> requests = new ArrayList<>(events.size());
+        for (Event event : events) {
+            addRequests(event, requests);
+        }
+        return requests;
+    }
+
+    /**
+     * Adds the requests of the documents of the event. When an event holds several
+     * documents the id given by the indexer is suffixed with the position of the document,
+     * all of them share the routing key of the event.
+     */
+    private void addRequests(Event event, List<IndexRequest> requests) {
+        String index;
+        String id;
+        String routing;
+        try {
+            index = indexer.getIndex(event);
+            if (index == null) {
+                LOG.debug("Sink event ignored, event is: {}", Util.dump(event));
+                return;
+            }
+            id = indexer.getId(event);
+            routing = indexer.getRouting(event);
+        } finally {
+            indexer.release(event);
+        }
         String type = "_doc";
-        String id = indexer.getId(event);
-        XContentBuilder xContentBuilder = serializer.serialize(event);
-        if (xContentBuilder != null) {
-            if (id != null && !id.isEmpty()) {
-                bulkProcessor.add(new IndexRequest(index, type, id)
-                        .source(xContentBuilder));
+        List<BytesReference> sources = serializer.toSources(event);
+        boolean hasId = id != null && !id.isEmpty();
+        boolean hasRouting = routing != null && !routing.isEmpty();
+        for (int i = 0; i < sources.size(); i++) {
+            IndexRequest request;
+            if (hasId) {
+                String documentId = sources.size() == 1 ? id : id + "-" + i;
+                request = new IndexRequest(index, type, documentId)
+                        .source(sources.get(i), XContentType.JSON);
             } else {
-                bulkProcessor.add(new IndexRequest(index, type)
-                        .source(xContentBuilder));
+                request = new IndexRequest(index, type)
+                        .source(sources.get(i), XContentType.JSON);
+            }
+            if (hasRouting) {
+                request.routing(routing);
             }
+            requests.add(request);
         }
     }
 
     @Override
     public void start() {
         sinkCounter.start();
+        bulkMetrics.start();
         try {
+            if (prometheusPort != null) {
+                prometheusEndpoint = new PrometheusEndpoint(bulkMetrics, prometheusPort);
+                prometheusEndpoint.start();
+            }
+            if (deadLetterQueue != null) {
+                deadLetterQueue.start(getName());
+            }
             client = clientBuilder.build();
-            bulkProcessor = bulkProcessorBuilder.build(this);
+            connectionMonitor = new ConnectionMonitor(getName(), this::checkConnection,
+                    probeInterval, probeIntervalMax);
+            bulkStreams.start(getName(), adaptiveSizer -> bulkProcessorBuilder.build(this, adaptiveSizer));
+            if (retryQueue != null) {
+                retryQueue.start(getName(), request -> add(request, null));
+            }
+            if (serializeParallelism > 1) {
+                serializerPool = Executors.newFixedThreadPool(serializeParallelism,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat(getName() + "-serializer-%d")
+                                .setDaemon(true)
+                                .build());
+            }
+            if (ackTracker != null) {
+                ackLaneSlots = new Semaphore(ackTransactions);
+                ackLanes = Executors.newFixedThreadPool(ackTransactions,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat(getName() + "-transaction-%d")
+                                .setDaemon(true)
+                                .build());
+            }
             sinkCounter.incrementConnectionCreatedCount();
         } catch (Exception e) {
             LOG.error("Error when starting: {}", e.getMessage(), e);
             sinkCounter.incrementConnectionFailedCount();
+            if (clientBuilder != null) {
+                clientBuilder.close();
+            }
             if (client != null) {
                 try {
                     client.close();
@@ -173,16 +409,53 @@ public class ElasticSearchSink extends AbstractSink implements Configurable {
 
     @Override
     public void stop() {
+        if (serializerPool != null) {
+            serializerPool.shutdown();
+            try {
+                serializerPool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            serializerPool = null;
+        }
+        if (ackLanes != null) {
+            ackLanes.shutdown();
+        }
+        if (retryQueue != null) {
+            retryQueue.stop();
+        }
         try {
-            if (bulkProcessor != null) {
-                bulkProcessor.close();
+            if (bulkStreams != null) {
+                if (ackLanes != null) {
+                    bulkStreams.awaitClose(ackTimeout.millis(), TimeUnit.MILLISECONDS);
+                    ackLanes.awaitTermination(ackTimeout.millis(), TimeUnit.MILLISECONDS);
+                    ackLanes = null;
+                } else {
+                    bulkStreams.close();
+                }
+            }
+            if (clientBuilder != null) {
+                clientBuilder.close();
             }
             if (client != null) {
                 client.close();
             }
         } catch (IOException e) {
             sinkCounter.incrementConnectionFailedCount();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        if (deadLetterQueue != null) {
+            deadLetterQueue.stop();
+        }
+        if (connectionMonitor != null) {
+            connectionMonitor.close();
+        }
+        if (prometheusEndpoint != null) {
+            prometheusEndpoint.stop();
+            prometheusEndpoint = null;
+        }
+        bulkMetrics.stop();
         sinkCounter.incrementConnectionClosedCount();
         sinkCounter.stop();
         super.stop();
@@ -220,29 +493,25 @@ public class ElasticSearchSink extends AbstractSink implements Configurable {
         return hosts;
     }
 
+    /**
+     * Replaces the started bulk streams the requests are handed to, for tests
+     */
+    void setBulkStreams(BulkStreams bulkStreams) {
+        this.bulkStreams.close();
+        this.bulkStreams = bulkStreams;
+    }
+
+    public ConnectionMonitor getConnectionMonitor() {
+        return connectionMonitor;
+    }
+
     /**
      * Checks for elasticsearch connection
-     * Sets shouldBackOff to true if bulkProcessor failed to deliver the request.
-     * Resets shouldBackOff to false once the connection to elasticsearch is established.
+     * Opens the connection circuit if bulkProcessor failed to deliver the request,
+     * the connection monitor closes it again once elasticsearch is reachable.
      */
     public void assertConnection() {
-        shouldBackOff.set(true);
-        final Timer timer = new Timer();
-        final TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    if (checkConnection()) {
-                        shouldBackOff.set(false);
-                        timer.cancel();
-                        timer.purge();
-                    }
-                } catch (IOException e) {
-                    LOG.error("ping request for elasticsearch failed " + e.getMessage(), e);
-                }
-            }
-        };
-        timer.scheduleAtFixedRate(task, 0, CHECK_CONNECTION_PERIOD);
+        connectionMonitor.onFailure();
     }
 
     private boolean checkConnection() throws IOException {
@@ -0,0 +1,129 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.instrumentation.SinkCounter;
+
+public class ElasticSearchSinkCounter extends SinkCounter implements ElasticSearchSinkCounterMBean {
+
+    private static final String BULK_ACTIONS_CURRENT = "sink.bulk.actions.current";
+
+    private static final String BULK_ITEM_RETRY_COUNT = "sink.bulk.item.retry";
+
+    private static final String BULK_ITEM_RETRY_EXHAUSTED_COUNT = "sink.bulk.item.retry.exhausted";
+
+    private static final String BULK_ITEM_FAILED_COUNT = "sink.bulk.item.failed";
+
+    private static final String DEAD_LETTER_WRITTEN_COUNT = "sink.dlq.written";
+
+    private static final String DEAD_LETTER_DROPPED_COUNT = "sink.dlq.dropped";
+
+    private static final String BULK_COMPRESS_BYTES_IN = "sink.bulk.compress.bytes.in";
+
+    private static final String BULK_COMPRESS_BYTES_OUT = "sink.bulk.compress.bytes.out";
+
+    private static final String BULK_COMPRESS_TIME = "sink.bulk.compress.time.nanos";
+
+    private static final String[] ATTRIBUTES = {
+            BULK_ACTIONS_CURRENT,
+            BULK_ITEM_RETRY_COUNT,
+            BULK_ITEM_RETRY_EXHAUSTED_COUNT,
+            BULK_ITEM_FAILED_COUNT,
+            DEAD_LETTER_WRITTEN_COUNT,
+            DEAD_LETTER_DROPPED_COUNT,
+            BULK_COMPRESS_BYTES_IN,
+            BULK_COMPRESS_BYTES_OUT,
+            BULK_COMPRESS_TIME
+    };
+
+    public ElasticSearchSinkCounter(String name) {
+        super(name, ATTRIBUTES);
+    }
+
+    @Override
+    public long getBulkActionsCurrent() {
+        return get(BULK_ACTIONS_CURRENT);
+    }
+
+    public void setBulkActionsCurrent(long bulkActions) {
+        set(BULK_ACTIONS_CURRENT, bulkActions);
+    }
+
+    /**
+     * Adds the change of the bulk actions of one stream, the gauge is the sum over the open streams
+     */
+    public long addBulkActionsCurrent(long delta) {
+        return addAndGet(BULK_ACTIONS_CURRENT, delta);
+    }
+
+    @Override
+    public long getBulkItemRetryCount() {
+        return get(BULK_ITEM_RETRY_COUNT);
+    }
+
+    public long incrementBulkItemRetryCount() {
+        return increment(BULK_ITEM_RETRY_COUNT);
+    }
+
+    @Override
+    public long getBulkItemRetryExhaustedCount() {
+        return get(BULK_ITEM_RETRY_EXHAUSTED_COUNT);
+    }
+
+    public long incrementBulkItemRetryExhaustedCount() {
+        return increment(BULK_ITEM_RETRY_EXHAUSTED_COUNT);
+    }
+
+    @Override
+    public long getBulkItemFailedCount() {
+        return get(BULK_ITEM_FAILED_COUNT);
+    }
+
+    public long incrementBulkItemFailedCount() {
+        return increment(BULK_ITEM_FAILED_COUNT);
+    }
+
+    @Override
+    public long getDeadLetterWrittenCount() {
+        return get(DEAD_LETTER_WRITTEN_COUNT);
+    }
+
+    public long incrementDeadLetterWrittenCount() {
+        return increment(DEAD_LETTER_WRITTEN_COUNT);
+    }
+
+    @Override
+    public long getDeadLetterDroppedCount() {
+        return get(DEAD_LETTER_DROPPED_COUNT);
+    }
+
+    public long incrementDeadLetterDroppedCount() {
+        return increment(DEAD_LETTER_DROPPED_COUNT);
+    }
+
+    @Override
+    public long getBulkCompressBytesIn() {
+        return get(BULK_COMPRESS_BYTES_IN);
+    }
+
+    @Override
+    public long getBulkCompressBytesOut() {
+        return get(BULK_COMPRESS_BYTES_OUT);
+    }
+
+    @Override
+    public long getBulkCompressTimeNanos() {
+        return get(BULK_COMPRESS_TIME);
+    }
+
+    @Override
+    public double getBulkCompressionRatio() {
+        long bytesOut = get(BULK_COMPRESS_BYTES_OUT);
+        return bytesOut == 0 ? 0 : (double) get(BULK_COMPRESS_BYTES_IN) / bytesOut;
+    }
+
+    public void addBulkCompression(long bytesIn, long bytesOut, long nanos) {
+        addAndGet(BULK_COMPRESS_BYTES_IN, bytesIn);
+        addAndGet(BULK_COMPRESS_BYTES_OUT, bytesOut);
+        addAndGet(BULK_COMPRESS_TIME, nanos);
+    }
+
+}
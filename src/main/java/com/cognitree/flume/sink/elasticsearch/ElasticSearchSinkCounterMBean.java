@@ -0,0 +1,36 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.instrumentation.SinkCounterMBean;
+
+/**
+ * Counters of the elasticsearch sink in addition to the ones of every sink
+ */
+public interface ElasticSearchSinkCounterMBean extends SinkCounterMBean {
+
+    /**
+     * Sum of the current bulk actions of the adaptive sizers of the open bulk streams
+     */
+    long getBulkActionsCurrent();
+
+    long getBulkItemRetryCount();
+
+    long getBulkItemRetryExhaustedCount();
+
+    long getBulkItemFailedCount();
+
+    long getDeadLetterWrittenCount();
+
+    long getDeadLetterDroppedCount();
+
+    long getBulkCompressBytesIn();
+
+    long getBulkCompressBytesOut();
+
+    long getBulkCompressTimeNanos();
+
+    /**
+     * Uncompressed over compressed bytes of the compressed bulk bodies
+     */
+    double getBulkCompressionRatio();
+
+}
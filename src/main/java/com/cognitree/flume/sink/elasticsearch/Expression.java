@@ -0,0 +1,453 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Event;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+/**
+ * An expression over the headers and the json body of an event, compiled once into a tree of nodes.
+ * <p>
+ * Syntax, from the lowest to the highest precedence:
+ * <pre>
+ *   cond ? then : else          conditional
+ *   a || b, a &amp;&amp; b, !a          logical, a value is true unless null, empty or "false"
+ *   a == b, a != b              comparison, "true" or "false"
+ *   a + b                       concatenation, null concatenates as the empty string
+ *   name, header('x y')         header, names may hold letters, digits, '_', '-' and '.'
+ *   body.a.b                    field of the json body, scalar values only
+ *   'text', "text", 42, null    literals
+ *   f(args)                     functions, see {@link #function}
+ * </pre>
+ * Every value is a string or null. Body fields are read by {@link BodyFields}, in a single lazy
+ * pass over the body shared by the expressions of an indexer.
+ */
+final class Expression {
+
+    /**
+     * The values read while evaluating the expressions of one event
+     */
+    static final class Scope {
+
+        private final Event event;
+
+        private final BodyFields fields;
+
+        private String[] values;
+
+        Scope(Event event, BodyFields fields) {
+            this.event = event;
+            this.fields = fields;
+        }
+
+        boolean isOf(Event event, BodyFields fields) {
+            return this.event == event && this.fields == fields;
+        }
+
+        private String field(int slot) {
+            if (values == null) {
+                values = fields.extract(event.getBody());
+            }
+            return values[slot];
+        }
+    }
+
+    interface Node {
+        String eval(Scope scope);
+    }
+
+    private static final class Literal implements Node {
+
+        private final String value;
+
+        private Literal(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String eval(Scope scope) {
+            return value;
+        }
+    }
+
+    private final String text;
+
+    private final Node root;
+
+    private Expression(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    /**
+     * Compiles the expression, registering the body fields it reads
+     *
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    static Expression compile(String text, BodyFields fields) {
+        Parser parser = new Parser(text, fields);
+        Node root = parser.conditional();
+        parser.skipSpaces();
+        if (parser.pos < text.length()) {
+            throw parser.error("unexpected '" + text.charAt(parser.pos) + "'");
+        }
+        return new Expression(text, root);
+    }
+
+    String eval(Scope scope) {
+        return root.eval(scope);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    static boolean isTrue(String value) {
+        return value != null && !value.isEmpty() && !"false".equals(value);
+    }
+
+    private static final class Parser {
+
+        private final String text;
+
+        private final BodyFields fields;
+
+        private int pos;
+
+        private Parser(String text, BodyFields fields) {
+            this.text = text;
+            this.fields = fields;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid expression [" + text + "] at " + pos + ": " + message);
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private boolean accept(String token) {
+            skipSpaces();
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("expected '" + token + "'");
+            }
+        }
+
+        private Node conditional() {
+            Node condition = or();
+            if (!accept("?")) {
+                return condition;
+            }
+            Node then = conditional();
+            expect(":");
+            Node otherwise = conditional();
+            return scope -> isTrue(condition.eval(scope)) ? then.eval(scope) : otherwise.eval(scope);
+        }
+
+        private Node or() {
+            Node left = and();
+            while (accept("||")) {
+                Node first = left;
+                Node second = and();
+                left = scope -> String.valueOf(isTrue(first.eval(scope)) || isTrue(second.eval(scope)));
+            }
+            return left;
+        }
+
+        private Node and() {
+            Node left = comparison();
+            while (accept("&&")) {
+                Node first = left;
+                Node second = comparison();
+                left = scope -> String.valueOf(isTrue(first.eval(scope)) && isTrue(second.eval(scope)));
+            }
+            return left;
+        }
+
+        private Node comparison() {
+            Node left = concatenation();
+            if (accept("==")) {
+                Node right = concatenation();
+                return scope -> String.valueOf(Objects.equals(left.eval(scope), right.eval(scope)));
+            }
+            if (accept("!=")) {
+                Node right = concatenation();
+                return scope -> String.valueOf(!Objects.equals(left.eval(scope), right.eval(scope)));
+            }
+            return left;
+        }
+
+        private Node concatenation() {
+            List<Node> parts = new ArrayList<>();
+            parts.add(unary());
+            while (accept("+")) {
+                parts.add(unary());
+            }
+            if (parts.size() == 1) {
+                return parts.get(0);
+            }
+            Node[] nodes = parts.toArray(new Node[0]);
+            return scope -> {
+                StringBuilder builder = new StringBuilder();
+                for (Node node : nodes) {
+                    String value = node.eval(scope);
+                    if (value != null) {
+                        builder.append(value);
+                    }
+                }
+                return builder.toString();
+            };
+        }
+
+        private Node unary() {
+            if (accept("!")) {
+                Node operand = unary();
+                return scope -> String.valueOf(!isTrue(operand.eval(scope)));
+            }
+            return primary();
+        }
+
+        private Node primary() {
+            skipSpaces();
+            if (pos >= text.length()) {
+                throw error("unexpected end");
+            }
+            char c = text.charAt(pos);
+            if (c == '(') {
+                pos++;
+                Node node = conditional();
+                expect(")");
+                return node;
+            }
+            if (c == '\'' || c == '"') {
+                return new Literal(string(c));
+            }
+            if (c >= '0' && c <= '9') {
+                int start = pos;
+                while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                return new Literal(text.substring(start, pos));
+            }
+            if (!isNameStart(c)) {
+                throw error("unexpected '" + c + "'");
+            }
+            int start = pos;
+            while (pos < text.length() && isNamePart(text.charAt(pos))) {
+                pos++;
+            }
+            String name = text.substring(start, pos);
+            if (accept("(")) {
+                return function(name, arguments());
+            }
+            if ("null".equals(name)) {
+                return scope -> null;
+            }
+            if (name.startsWith("body.") && name.length() > 5) {
+                int slot = fields.add(name.substring(5));
+                return scope -> scope.field(slot);
+            }
+            return scope -> scope.event.getHeaders().get(name);
+        }
+
+        private String string(char quote) {
+            StringBuilder builder = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == quote) {
+                    return builder.toString();
+                }
+                if (c == '\\' && pos < text.length()) {
+                    c = text.charAt(pos++);
+                }
+                builder.append(c);
+            }
+            throw error("unterminated string");
+        }
+
+        private List<Node> arguments() {
+            List<Node> arguments = new ArrayList<>();
+            if (accept(")")) {
+                return arguments;
+            }
+            do {
+                arguments.add(conditional());
+            } while (accept(","));
+            expect(")");
+            return arguments;
+        }
+
+        /**
+         * lower(s), upper(s), trim(s), substring(s, begin[, end]), replace(s, target, replacement),
+         * coalesce(a, b, ...), header(name), now(), date(millis, 'pattern'[, 'zone']) formatting
+         * epoch millis and parseDate(s, 'pattern'[, 'zone']) returning epoch millis, of the start of
+         * the day for patterns without a time of day. The patterns and zones must be literals, zones
+         * default to UTC. Functions of null return null.
+         */
+        private Node function(String name, List<Node> args) {
+            switch (name) {
+                case "lower":
+                    arity(name, args, 1, 1);
+                    return unary(args, s -> s.toLowerCase(Locale.ROOT));
+                case "upper":
+                    arity(name, args, 1, 1);
+                    return unary(args, s -> s.toUpperCase(Locale.ROOT));
+                case "trim":
+                    arity(name, args, 1, 1);
+                    return unary(args, String::trim);
+                case "substring": {
+                    arity(name, args, 2, 3);
+                    Node value = args.get(0);
+                    Node begin = args.get(1);
+                    Node end = args.size() > 2 ? args.get(2) : null;
+                    return scope -> {
+                        String s = value.eval(scope);
+                        if (s == null) {
+                            return null;
+                        }
+                        int from = Math.min(index(begin.eval(scope)), s.length());
+                        int to = end == null ? s.length() : Math.min(index(end.eval(scope)), s.length());
+                        return from >= to ? "" : s.substring(from, to);
+                    };
+                }
+                case "replace": {
+                    arity(name, args, 3, 3);
+                    Node value = args.get(0);
+                    Node target = args.get(1);
+                    Node replacement = args.get(2);
+                    return scope -> {
+                        String s = value.eval(scope);
+                        String t = target.eval(scope);
+                        String r = replacement.eval(scope);
+                        return s == null || t == null || t.isEmpty() ? s : s.replace(t, r == null ? "" : r);
+                    };
+                }
+                case "coalesce": {
+                    arity(name, args, 1, Integer.MAX_VALUE);
+                    Node[] nodes = args.toArray(new Node[0]);
+                    return scope -> {
+                        for (Node node : nodes) {
+                            String value = node.eval(scope);
+                            if (value != null) {
+                                return value;
+                            }
+                        }
+                        return null;
+                    };
+                }
+                case "header": {
+                    arity(name, args, 1, 1);
+                    Node header = args.get(0);
+                    return scope -> {
+                        String key = header.eval(scope);
+                        return key == null ? null : scope.event.getHeaders().get(key);
+                    };
+                }
+                case "now":
+                    arity(name, args, 0, 0);
+                    return scope -> Long.toString(System.currentTimeMillis());
+                case "date": {
+                    arity(name, args, 2, 3);
+                    DateTimeFormatter formatter = formatter(args);
+                    Node millis = args.get(0);
+                    return scope -> {
+                        String value = millis.eval(scope);
+                        try {
+                            return value == null ? null : formatter.format(Instant.ofEpochMilli(Long.parseLong(value.trim())));
+                        } catch (NumberFormatException e) {
+                            return null;
+                        }
+                    };
+                }
+                case "parseDate": {
+                    arity(name, args, 2, 3);
+                    DateTimeFormatter formatter = formatter(args);
+                    Node date = args.get(0);
+                    return scope -> {
+                        String value = date.eval(scope);
+                        try {
+                            return value == null ? null : Long.toString(Util.parseEpochMillis(formatter, value));
+                        } catch (DateTimeException e) {
+                            return null;
+                        }
+                    };
+                }
+                default:
+                    throw error("unknown function " + name + ", supported functions are " + Arrays.asList(
+                            "lower", "upper", "trim", "substring", "replace", "coalesce", "header", "now", "date",
+                            "parseDate"));
+            }
+        }
+
+        private void arity(String name, List<Node> args, int min, int max) {
+            if (args.size() < min || args.size() > max) {
+                throw error(name + " takes " + (min == max ? min : min + " to " + (max == Integer.MAX_VALUE ? "n" : max))
+                        + " arguments, found " + args.size());
+            }
+        }
+
+        private Node unary(List<Node> args, UnaryOperator<String> function) {
+            Node value = args.get(0);
+            return scope -> {
+                String s = value.eval(scope);
+                return s == null ? null : function.apply(s);
+            };
+        }
+
+        private DateTimeFormatter formatter(List<Node> args) {
+            String pattern = literal(args.get(1), "pattern");
+            ZoneId zone = args.size() > 2 ? ZoneId.of(literal(args.get(2), "zone")) : ZoneOffset.UTC;
+            try {
+                return DateTimeFormatter.ofPattern(pattern).withZone(zone);
+            } catch (IllegalArgumentException e) {
+                throw error("invalid date pattern " + pattern);
+            }
+        }
+
+        private String literal(Node node, String what) {
+            if (!(node instanceof Literal)) {
+                throw error("the " + what + " must be a literal");
+            }
+            return ((Literal) node).value;
+        }
+
+        private static int index(String value) {
+            try {
+                return value == null ? 0 : Math.max(0, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private static boolean isNameStart(char c) {
+            return Character.isLetter(c) || c == '_' || c == '@';
+        }
+
+        private static boolean isNamePart(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '@';
+        }
+    }
+
+}
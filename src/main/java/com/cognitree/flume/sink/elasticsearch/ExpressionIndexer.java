@@ -6,44 +6,86 @@ import org.apache.flume.Event;
 
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import static com.cognitree.flume.sink.elasticsearch.Constants.COMMA;
 
+/**
+ * Selects the index, the id and the routing with {@link Expression}s over the headers and the json
+ * body.
+ * <p>
+ * The expressions are compiled at configure time. The body fields of all expressions are read in
+ * one pass, shared by the getIndex, getId and getRouting calls of the same event on a thread until
+ * {@link #release} drops it, so that the last event and its body are not kept reachable. An
+ * expression which is a plain name reads the header of that name, as this indexer did before
+ * expressions.
+ */
 @Slf4j
 public class ExpressionIndexer implements Indexer {
-    private static final String INDEX_HEADER = "index.expression";
+    private static final String INDEX_EXPRESSION = "index.expression";
     private static final String INDEX_INCLUDE = "index.include";
     private static final String INDEX_EXCLUDE = "index.exclude";
     private static final String DEFAULT_INDEX = "default";
-    private static final String ID_HEADER = "id.expression";
+    private static final String ID_EXPRESSION = "id.expression";
+    private static final String ROUTING_EXPRESSION = "routing.expression";
 
-    private String indexHeader;
-    private String idHeader;
+    // one slot per thread, emptied on release rather than removed to keep the thread local entry
+    private final ThreadLocal<Expression.Scope[]> lastScope = ThreadLocal.withInitial(() -> new Expression.Scope[1]);
+
+    private BodyFields fields;
+    private Expression indexExpression;
+    private Expression idExpression;
+    private Expression routingExpression;
     private Set<String> includeIndexes;
     private Set<String> excludeIndexes;
 
     @Override
     public String getIndex(Event event) {
-        throw new UnsupportedOperationException();
+        String index = indexExpression == null ? null : indexExpression.eval(scope(event));
+        if (index == null || index.isEmpty()) {
+            index = DEFAULT_INDEX;
+        }
+        if (includeIndexes != null && !includeIndexes.contains(index)) {
+            return null;
+        }
+        if (excludeIndexes != null && excludeIndexes.contains(index)) {
+            return null;
+        }
+        return index;
     }
 
     @Override
     public String getId(Event event) {
-        if (idHeader == null) {
+        if (idExpression == null) {
             return null;
         }
-        Map<String, String> headers = event.getHeaders();
-        return headers.get(idHeader);
+        return idExpression.eval(scope(event));
+    }
+
+    @Override
+    public String getRouting(Event event) {
+        if (routingExpression == null) {
+            return null;
+        }
+        return routingExpression.eval(scope(event));
+    }
+
+    @Override
+    public void release(Event event) {
+        lastScope.get()[0] = null;
     }
 
     @Override
     public void configure(Context context) {
-        this.indexHeader = Util.getContextValue(context, INDEX_HEADER);
-        this.idHeader = Util.getContextValue(context, ID_HEADER);
-        log.info("Header Indexer: index [{}], id [{}]",
-                this.indexHeader, this.idHeader);
+        this.fields = new BodyFields();
+        String index = Util.getContextValue(context, INDEX_EXPRESSION);
+        String id = Util.getContextValue(context, ID_EXPRESSION);
+        String routing = Util.getContextValue(context, ROUTING_EXPRESSION);
+        this.indexExpression = index == null ? null : Expression.compile(index, fields);
+        this.idExpression = id == null ? null : Expression.compile(id, fields);
+        this.routingExpression = routing == null ? null : Expression.compile(routing, fields);
+        log.info("Expression Indexer: index [{}], id [{}], routing [{}], body fields [{}]",
+                index, id, routing, fields.size());
         String includeIndexesValue = Util.getContextValue(context, INDEX_INCLUDE);
         if (includeIndexesValue != null) {
             includeIndexes = new HashSet<>();
@@ -57,4 +99,21 @@ public class ExpressionIndexer implements Indexer {
         }
     }
 
+    private Expression.Scope scope(Event event) {
+        Expression.Scope[] slot = lastScope.get();
+        Expression.Scope scope = slot[0];
+        if (scope == null || !scope.isOf(event, fields)) {
+            scope = new Expression.Scope(event, fields);
+            slot[0] = scope;
+        }
+        return scope;
+    }
+
+    /**
+     * Whether the thread still holds the scope of an event, for tests
+     */
+    boolean hasScope() {
+        return lastScope.get()[0] != null;
+    }
+
 }
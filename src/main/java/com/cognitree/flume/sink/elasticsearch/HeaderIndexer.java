@@ -18,9 +18,13 @@ public class HeaderIndexer implements Indexer {
     private static final String INDEX_EXCLUDE = "index.exclude";
     private static final String DEFAULT_INDEX = "default";
     private static final String ID_HEADER = "id.header";
+    private static final String ROUTING_HEADER = "routing.header";
+    private static final String ID_HASH = "id.hash";
 
     private String indexHeader;
     private String idHeader;
+    private String routingHeader;
+    private ContentHashId hashId;
     private Set<String> includeIndexes;
     private Set<String> excludeIndexes;
 
@@ -42,19 +46,29 @@ public class HeaderIndexer implements Indexer {
 
     @Override
     public String getId(Event event) {
-        if (idHeader == null) {
+        String id = idHeader == null ? null : event.getHeaders().get(idHeader);
+        if (id == null && hashId != null) {
+            return hashId.of(event);
+        }
+        return id;
+    }
+
+    @Override
+    public String getRouting(Event event) {
+        if (routingHeader == null) {
             return null;
         }
-        Map<String, String> headers = event.getHeaders();
-        return headers.get(idHeader);
+        return event.getHeaders().get(routingHeader);
     }
 
     @Override
     public void configure(Context context) {
         this.indexHeader = Util.getContextValue(context, INDEX_HEADER);
         this.idHeader = Util.getContextValue(context, ID_HEADER);
-        log.info("Header Indexer: index [{}], id [{}]",
-                this.indexHeader, this.idHeader);
+        this.routingHeader = Util.getContextValue(context, ROUTING_HEADER);
+        this.hashId = ContentHashId.parse(Util.getContextValue(context, ID_HASH));
+        log.info("Header Indexer: index [{}], id [{}], routing [{}]",
+                this.indexHeader, this.idHeader, this.routingHeader);
         String includeIndexesValue = Util.getContextValue(context, INDEX_INCLUDE);
         if (includeIndexesValue != null) {
             includeIndexes = new HashSet<>();
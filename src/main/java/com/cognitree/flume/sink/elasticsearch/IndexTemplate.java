@@ -0,0 +1,119 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A ${...} template parsed once into literal, header and date segments.
+ * <p>
+ * Rendering appends the segments to a per thread builder, reading the headers straight from the
+ * event and the date tokens ({@value TimeBuckets#YEAR}, {@value TimeBuckets#MONTH},
+ * {@value TimeBuckets#DAY}, {@value TimeBuckets#HOUR}, {@value TimeBuckets#WEEK} and
+ * {@value TimeBuckets#DATE}) from a {@link TimeBuckets.Bucket}. In templates holding
+ * {@value TimeBuckets#WEEK}, {@value TimeBuckets#YEAR} is the ISO week-based year. The names of templates holding no
+ * header are rendered once per bucket. As with {@link Util#template}, date tokens win over headers
+ * of the same name and the placeholders of missing headers are kept as is, unless the template is
+ * rendered with {@link #renderComplete}.
+ */
+final class IndexTemplate {
+
+    private static final Pattern VARIABLE = Pattern.compile("\\$\\{(.*?)\\}");
+
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+    private final String[] literals;
+
+    private final String[] headers;
+
+    private final String[] tokens;
+
+    private final String[] placeholders;
+
+    private final boolean dated;
+
+    private final boolean headerFree;
+
+    private IndexTemplate(List<String> literals, List<String> headers, List<String> tokens,
+                          List<String> placeholders) {
+        this.literals = literals.toArray(new String[0]);
+        this.headers = headers.toArray(new String[0]);
+        this.tokens = tokens.toArray(new String[0]);
+        this.placeholders = placeholders.toArray(new String[0]);
+        this.dated = tokens.stream().anyMatch(token -> token != null);
+        this.headerFree = headers.stream().allMatch(header -> header == null);
+    }
+
+    /**
+     * Parses the template, segment i is the literal i followed by the variable i, if any
+     */
+    static IndexTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> headers = new ArrayList<>();
+        List<String> tokens = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        Matcher matcher = VARIABLE.matcher(text);
+        int end = 0;
+        while (matcher.find()) {
+            literals.add(text.substring(end, matcher.start()));
+            String variable = matcher.group(1).trim();
+            boolean token = TimeBuckets.isToken(variable);
+            headers.add(token ? null : variable);
+            tokens.add(token ? variable : null);
+            placeholders.add(matcher.group());
+            end = matcher.end();
+        }
+        literals.add(text.substring(end));
+        if (tokens.contains(TimeBuckets.WEEK)) {
+            tokens.replaceAll(token -> TimeBuckets.YEAR.equals(token) ? TimeBuckets.WEEK_YEAR : token);
+        }
+        return new IndexTemplate(literals, headers, tokens, placeholders);
+    }
+
+    /**
+     * Whether the template holds date tokens
+     */
+    boolean isDated() {
+        return dated;
+    }
+
+    /**
+     * Renders the template, the bucket may be null if the template holds no date token
+     */
+    String render(Map<String, String> eventHeaders, TimeBuckets.Bucket bucket) {
+        if (headers.length == 0) {
+            return literals[0];
+        }
+        if (headerFree) {
+            return bucket.names().computeIfAbsent(this, template -> template.build(eventHeaders, bucket, false));
+        }
+        return build(eventHeaders, bucket, false);
+    }
+
+    /**
+     * Renders the template, returns null if a header of the template is missing from the event
+     */
+    String renderComplete(Map<String, String> eventHeaders, TimeBuckets.Bucket bucket) {
+        if (headers.length == 0 || headerFree) {
+            return render(eventHeaders, bucket);
+        }
+        return build(eventHeaders, bucket, true);
+    }
+
+    private String build(Map<String, String> eventHeaders, TimeBuckets.Bucket bucket, boolean complete) {
+        StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+        for (int i = 0; i < headers.length; i++) {
+            builder.append(literals[i]);
+            String value = tokens[i] != null ? bucket.get(tokens[i]) : eventHeaders.get(headers[i]);
+            if (value == null && complete) {
+                return null;
+            }
+            builder.append(value != null ? value : placeholders[i]);
+        }
+        return builder.append(literals[headers.length]).toString();
+    }
+
+}
@@ -21,6 +21,8 @@ import org.apache.flume.conf.Configurable;
 /**
  * Interface to select an index, type and id for each event.
  * A single instance of the class is created when the Sink initializes and is destroyed when the Sink is stopped.
+ * The instance must be thread safe: it is called from the serialization threads with es.serialize.parallelism
+ * above 1 and from the es.ack.transactions threads draining the channel with es.ack.commit.
  * Config params can be taken through Configurable
  */
 public interface Indexer extends Configurable {
@@ -39,6 +41,21 @@ public interface Indexer extends Configurable {
      */
     String getId(Event event);
 
+    /**
+     * Returns the routing key of the document, the document is routed by its id if null.
+     * Documents sharing a routing key are stored on the same shard.
+     */
+    default String getRouting(Event event) {
+        return null;
+    }
+
+    /**
+     * Called on the same thread once the index, id and routing of the event are produced,
+     * releases the state kept for the event
+     */
+    default void release(Event event) {
+    }
+
 
     static Indexer getInstance(String type){
         switch (type){
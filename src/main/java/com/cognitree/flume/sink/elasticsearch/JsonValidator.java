@@ -0,0 +1,140 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.elasticsearch.xcontent.DeprecationHandler;
+import org.elasticsearch.xcontent.NamedXContentRegistry;
+import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Cheap checks for json documents that are indexed without being re-encoded.
+ */
+public final class JsonValidator {
+
+    private JsonValidator() {
+    }
+
+    public enum Mode {
+        /**
+         * No validation, the body is trusted to be a json object
+         */
+        NONE,
+        /**
+         * Single byte scan checking that braces, brackets and quotes are balanced and nested
+         */
+        BALANCE,
+        /**
+         * Streaming token pass over the whole document, nothing is copied
+         */
+        SKIM;
+
+        public static Mode get(String mode) {
+            return Mode.valueOf(mode.trim().toUpperCase());
+        }
+    }
+
+    public static boolean isValid(byte[] bytes, Mode mode) {
+        switch (mode) {
+            case BALANCE:
+                return isBalanced(bytes, 0, bytes.length);
+            case SKIM:
+                return skim(bytes, 0, bytes.length);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Returns true if the bytes hold a single json object whose braces, brackets
+     * and string quotes are balanced, each closer matching the last opener.
+     * Tokens inside the object are not checked.
+     */
+    public static boolean isBalanced(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int i = skipWhitespace(bytes, offset, end);
+        if (i == end || bytes[i] != '{') {
+            return false;
+        }
+        int depth = 0;
+        // one bit per open level, set for a bracket: the first 64 levels, then the deeper ones
+        long arrays = 0;
+        long[] deepArrays = null;
+        boolean inString = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    boolean array = b == '[';
+                    if (depth < 64) {
+                        arrays = array ? arrays | 1L << depth : arrays & ~(1L << depth);
+                    } else {
+                        int word = (depth - 64) >>> 6;
+                        if (deepArrays == null || word == deepArrays.length) {
+                            deepArrays = deepArrays == null ? new long[1] : Arrays.copyOf(deepArrays, word * 2);
+                        }
+                        deepArrays[word] = array ? deepArrays[word] | 1L << depth
+                                : deepArrays[word] & ~(1L << depth);
+                    }
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (--depth < 0) {
+                        return false;
+                    }
+                    boolean openedArray = depth < 64 ? (arrays & 1L << depth) != 0
+                            : (deepArrays[(depth - 64) >>> 6] & 1L << depth) != 0;
+                    if (openedArray != (b == ']')) {
+                        return false;
+                    }
+                    if (depth == 0) {
+                        return skipWhitespace(bytes, i + 1, end) == end;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the bytes tokenize as a single json object.
+     */
+    public static boolean skim(byte[] bytes, int offset, int length) {
+        try (XContentParser parser = XContentType.JSON.xContent()
+                .createParser(NamedXContentRegistry.EMPTY,
+                        DeprecationHandler.THROW_UNSUPPORTED_OPERATION,
+                        bytes, offset, length)) {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                return false;
+            }
+            parser.skipChildren();
+            return parser.nextToken() == null;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static int skipWhitespace(byte[] bytes, int i, int end) {
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\n' || bytes[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+}
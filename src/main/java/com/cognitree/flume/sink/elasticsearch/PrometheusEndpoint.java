@@ -0,0 +1,118 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import com.cognitree.flume.sink.elasticsearch.BulkMetricsMXBean.Snapshot;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Serves the bulk metrics of a sink in the prometheus text format on /metrics.
+ * <p>
+ * Distributions are exposed as summaries with the 0.5, 0.9, 0.99 and 0.999 quantiles,
+ * the latency in seconds. Requests are answered by the single thread of the http server.
+ */
+@Slf4j
+public class PrometheusEndpoint {
+
+    private static final String PREFIX = "flume_es_";
+
+    private final BulkMetrics bulkMetrics;
+
+    private final int port;
+
+    private HttpServer server;
+
+    public PrometheusEndpoint(BulkMetrics bulkMetrics, int port) {
+        this.bulkMetrics = bulkMetrics;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        log.info("Serving the bulk metrics of [{}] on port [{}]", bulkMetrics.getName(), getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String scrape() {
+        StringBuilder out = new StringBuilder(2048);
+        String sink = "sink=\"" + escape(bulkMetrics.getName()) + "\"";
+        summary(out, "bulk_latency_seconds", "Time from handing a bulk to the client to its response",
+                sink, bulkMetrics.getBulkLatencyMillis(), 1e-3);
+        summary(out, "bulk_bytes", "Estimated size of the bulk requests before compression",
+                sink, bulkMetrics.getBulkBytes(), 1);
+        summary(out, "bulk_actions", "Number of actions per bulk request",
+                sink, bulkMetrics.getBulkActions(), 1);
+        summary(out, "bulk_failed_items", "Number of failed items per completed bulk request",
+                sink, bulkMetrics.getBulkFailedItems(), 1);
+        header(out, "bulks_in_flight", "Bulk requests waiting for a response", "gauge");
+        sample(out, "bulks_in_flight", sink, bulkMetrics.getBulksInFlight());
+        header(out, "bulk_failures_total", "Bulk requests that failed as a whole", "counter");
+        sample(out, "bulk_failures_total", sink, bulkMetrics.getBulkFailures());
+        header(out, "bulk_item_failures_total", "Failed bulk items by elasticsearch error type", "counter");
+        for (Map.Entry<String, Long> failure : bulkMetrics.getItemFailures().entrySet()) {
+            sample(out, "bulk_item_failures_total", sink + ",type=\"" + escape(failure.getKey()) + "\"",
+                    failure.getValue());
+        }
+        return out.toString();
+    }
+
+    private static void summary(StringBuilder out, String name, String help, String labels,
+                                Snapshot snapshot, double scale) {
+        header(out, name, help, "summary");
+        sample(out, name, labels + ",quantile=\"0.5\"", snapshot.getP50() * scale);
+        sample(out, name, labels + ",quantile=\"0.9\"", snapshot.getP90() * scale);
+        sample(out, name, labels + ",quantile=\"0.99\"", snapshot.getP99() * scale);
+        sample(out, name, labels + ",quantile=\"0.999\"", snapshot.getP999() * scale);
+        sample(out, name + "_sum", labels, snapshot.getSum() * scale);
+        sample(out, name + "_count", labels, snapshot.getCount());
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(PREFIX).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(PREFIX).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
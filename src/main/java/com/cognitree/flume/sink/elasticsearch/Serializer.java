@@ -17,11 +17,17 @@ package com.cognitree.flume.sink.elasticsearch;
 
 import org.apache.flume.Event;
 import org.apache.flume.conf.Configurable;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.xcontent.XContentBuilder;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A serializer to convert the given Flume Event into a json document that will be indexed into Elasticsearch.
  * A single instance of the class is created when the Sink initializes and is destroyed when the Sink is stopped.
+ * The instance must be thread safe: it is called from the serialization threads with es.serialize.parallelism
+ * above 1 and from the es.ack.transactions threads draining the channel with es.ack.commit.
  */
 public interface Serializer extends Configurable {
 
@@ -34,6 +40,26 @@ public interface Serializer extends Configurable {
      */
     XContentBuilder serialize(Event event);
 
+    /**
+     * Returns the json source of the event, null if it could not be serialized.
+     * Serializers already holding the encoded document can override this
+     * to skip building an XContentBuilder.
+     */
+    default BytesReference toSource(Event event) {
+        XContentBuilder builder = serialize(event);
+        return builder == null ? null : BytesReference.bytes(builder);
+    }
+
+    /**
+     * Returns the json sources of the documents held by the event, empty if it could not be
+     * serialized. Serializers of bodies batching several records override this to index each
+     * record as its own document, by default an event holds a single document.
+     */
+    default List<BytesReference> toSources(Event event) {
+        BytesReference source = toSource(event);
+        return source == null ? Collections.emptyList() : Collections.singletonList(source);
+    }
+
     static Serializer getInstance(String type){
         switch (type){
             case "simple":
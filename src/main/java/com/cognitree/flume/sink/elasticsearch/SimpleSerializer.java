@@ -16,13 +16,17 @@
 package com.cognitree.flume.sink.elasticsearch;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.xcontent.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
 
@@ -30,11 +34,26 @@ import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
  * This Serializer assumes the event body to be in JSON format
  * Validate the json and copy the same structure in the parser
  * returns XContentBuilder
+ * <p>
+ * In passthrough mode the body bytes are handed to the index request as is,
+ * after an optional cheap validation, so well-formed json is never re-encoded.
  */
 public class SimpleSerializer implements Serializer {
 
     private static final Logger logger = LoggerFactory.getLogger(SimpleSerializer.class);
 
+    private static final String PASSTHROUGH = "json.passthrough";
+    private static final String VALIDATE = "json.validate";
+    private static final String DEFAULT_VALIDATE = "balance";
+    private static final String VALIDATE_SAMPLE_RATE = "json.validate.sample.rate";
+    private static final Double DEFAULT_VALIDATE_SAMPLE_RATE = 0.0;
+
+    private boolean passthrough;
+
+    private JsonValidator.Mode validateMode;
+
+    private double validateSampleRate;
+
     @Override
     public XContentBuilder serialize(Event event) {
         XContentBuilder builder = null;
@@ -52,9 +71,34 @@ public class SimpleSerializer implements Serializer {
         return builder;
     }
 
+    @Override
+    public BytesReference toSource(Event event) {
+        if (!passthrough) {
+            return Serializer.super.toSource(event);
+        }
+        byte[] body = event.getBody();
+        if (!JsonValidator.isValid(body, validateMode)) {
+            logger.error("Invalid json in event body, event is: {}", Util.dump(event));
+            return null;
+        }
+        if (validateSampleRate > 0 && validateMode != JsonValidator.Mode.SKIM
+                && ThreadLocalRandom.current().nextDouble() < validateSampleRate
+                && !JsonValidator.skim(body, 0, body.length)) {
+            logger.error("Invalid json in sampled event body, event is: {}", Util.dump(event));
+            return null;
+        }
+        return new BytesArray(body);
+    }
+
     @Override
     public void configure(Context context) {
-        // No parameters needed from the configurations
+        passthrough = context.getBoolean(PASSTHROUGH, false);
+        validateMode = JsonValidator.Mode.get(context.getString(VALIDATE, DEFAULT_VALIDATE));
+        validateSampleRate = context.getDouble(VALIDATE_SAMPLE_RATE, DEFAULT_VALIDATE_SAMPLE_RATE);
+        Preconditions.checkArgument(validateSampleRate >= 0 && validateSampleRate <= 1,
+                VALIDATE_SAMPLE_RATE + " must be between 0 and 1");
+        logger.info("Simple Serializer: passthrough [{}], validate [{}], sample rate [{}]",
+                passthrough, validateMode, validateSampleRate);
     }
 
 }
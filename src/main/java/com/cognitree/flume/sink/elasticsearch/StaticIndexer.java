@@ -11,8 +11,10 @@ import org.slf4j.LoggerFactory;
 public class StaticIndexer implements Indexer {
     private static final String INDEX = "index";
     private static final String DEFAULT_INDEX = "default";
+    private static final String ID_HASH = "id.hash";
 
     private String index;
+    private ContentHashId hashId;
 
     @Override
     public String getIndex(Event event) {
@@ -21,14 +23,16 @@ public class StaticIndexer implements Indexer {
 
     @Override
     public String getId(Event event) {
-        return null;
+        return hashId == null ? null : hashId.of(event);
     }
 
     @Override
     public void configure(Context context) {
         String index = Util.getContextValue(context, INDEX);
         this.index = StringUtils.isBlank(index) ? DEFAULT_INDEX : index;
-        log.info("Static Indexer: index [{}].", this.index);
+        String idHash = Util.getContextValue(context, ID_HASH);
+        this.hashId = ContentHashId.parse(idHash);
+        log.info("Static Indexer: index [{}], id hash [{}].", this.index, idHash);
     }
 
 }
@@ -1,51 +1,137 @@
 package com.cognitree.flume.sink.elasticsearch;
 
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
-import org.apache.http.client.utils.DateUtils;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Renders the index, the id and the routing from ${...} templates of event headers and of the
+ * date tokens Y, M, D, H, W and DATE.
+ * <p>
+ * The date tokens are those of the time bucket (hour, day, week or month of a time zone) holding
+ * the time of the event, read from a header as epoch millis or as a formatted timestamp, or the
+ * wall clock when no time header is configured or the header is missing or malformed. Formats
+ * without a time of day read the start of the day. Malformed times are counted and logged at most
+ * once every {@value #MALFORMED_LOG_MILLIS}ms. The
+ * templates are compiled at configure time and the tokens of a bucket are formatted once, see
+ * {@link TimeBuckets}.
+ */
+@Slf4j
 public class TemplateIndexer implements Indexer {
     private static final String INDEX_TEMPLATE = "index.template";
     private static final String ID_TEMPLATE = "id.template";
+    private static final String ROUTING_TEMPLATE = "routing.template";
+    private static final String TIME_HEADER = "time.header";
+    private static final String TIME_FORMAT = "time.format";
+    private static final String TIME_ZONE = "time.zone";
+    private static final String TIME_GRANULARITY = "time.granularity";
+    private static final String TIME_CACHE_SIZE = "time.cache.size";
+    private static final String DEFAULT_TIME_GRANULARITY = "day";
+    private static final int DEFAULT_TIME_CACHE_SIZE = 64;
+    private static final long MALFORMED_LOG_MILLIS = 60000;
 
     private String indexTemplate;
     private String idTemplate;
+    private String routingTemplate;
+
+    private IndexTemplate compiledIndex;
+    private IndexTemplate compiledId;
+    private IndexTemplate compiledRouting;
+
+    private TimeBuckets buckets;
+    private String timeHeader;
+    private DateTimeFormatter timeFormat;
+
+    private final AtomicLong malformedTimes = new AtomicLong();
+    private volatile long lastMalformedLog;
 
     @Override
     public String getIndex(Event event) {
-        Map<String, Object> params = new HashMap<>(event.getHeaders());
-        appendDateParams(params);
-        return Util.template(indexTemplate, params);
+        if (compiledIndex == null) {
+            return indexTemplate;
+        }
+        return compiledIndex.render(event.getHeaders(), compiledIndex.isDated() ? bucket(event) : null);
     }
 
     @Override
     public String getId(Event event) {
-        if(!StringUtils.isBlank(idTemplate)){
-            Map<String, Object> params = new HashMap<>(event.getHeaders());
-            appendDateParams(params);
-            return Util.template(idTemplate, params);
+        if (compiledId == null) {
+            return null;
+        }
+        return compiledId.render(event.getHeaders(), compiledId.isDated() ? bucket(event) : null);
+    }
+
+    @Override
+    public String getRouting(Event event) {
+        if (compiledRouting == null) {
+            return null;
         }
-        return null;
+        // a missing header routes the document by its id rather than by the placeholder
+        return compiledRouting.renderComplete(event.getHeaders(), compiledRouting.isDated() ? bucket(event) : null);
     }
 
     @Override
     public void configure(Context context) {
         this.indexTemplate = Util.getContextValue(context, INDEX_TEMPLATE);
         this.idTemplate = Util.getContextValue(context, ID_TEMPLATE);
+        this.compiledIndex = StringUtils.isBlank(indexTemplate) ? null : IndexTemplate.compile(indexTemplate);
+        this.compiledId = StringUtils.isBlank(idTemplate) ? null : IndexTemplate.compile(idTemplate);
+        this.routingTemplate = Util.getContextValue(context, ROUTING_TEMPLATE);
+        this.compiledRouting = StringUtils.isBlank(routingTemplate) ? null : IndexTemplate.compile(routingTemplate);
+
+        String zone = Util.getContextValue(context, TIME_ZONE);
+        ZoneId zoneId = zone == null ? ZoneOffset.UTC : ZoneId.of(zone);
+        String granularity = Util.getContextValue(context, TIME_GRANULARITY);
+        String cacheSize = Util.getContextValue(context, TIME_CACHE_SIZE);
+        this.buckets = new TimeBuckets(zoneId,
+                TimeBuckets.Granularity.of(granularity == null ? DEFAULT_TIME_GRANULARITY : granularity),
+                cacheSize == null ? DEFAULT_TIME_CACHE_SIZE : Integer.parseInt(cacheSize));
+        this.timeHeader = Util.getContextValue(context, TIME_HEADER);
+        String format = Util.getContextValue(context, TIME_FORMAT);
+        this.timeFormat = format == null ? null : DateTimeFormatter.ofPattern(format).withZone(zoneId);
+        log.info("Template Indexer: index [{}], id [{}], routing [{}], time header [{}], zone [{}]",
+                indexTemplate, idTemplate, routingTemplate, timeHeader, zoneId);
+    }
+
+    private TimeBuckets.Bucket bucket(Event event) {
+        if (timeHeader == null) {
+            return buckets.now();
+        }
+        String time = event.getHeaders().get(timeHeader);
+        if (time == null) {
+            return buckets.now();
+        }
+        try {
+            return buckets.of(timeFormat == null ? Long.parseLong(time.trim())
+                    : Util.parseEpochMillis(timeFormat, time));
+        } catch (NumberFormatException | DateTimeException e) {
+            onMalformed(time, e);
+            return buckets.now();
+        }
     }
 
+    private void onMalformed(String time, RuntimeException e) {
+        long malformed = malformedTimes.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (now - lastMalformedLog >= MALFORMED_LOG_MILLIS) {
+            lastMalformedLog = now;
+            log.warn("Malformed time [{}] in header {} ({}), using the wall clock, {} malformed times so far",
+                    time, timeHeader, e.getMessage(), malformed);
+        }
+    }
 
-    private void appendDateParams(Map<String, Object> params) {
-        Date now = new Date();
-        params.put("Y", DateUtils.formatDate(now, "yyyy"));
-        params.put("M", DateUtils.formatDate(now, "MM"));
-        params.put("D", DateUtils.formatDate(now, "dd"));
-        params.put("DATE", DateUtils.formatDate(now, "yyyy-MM-dd"));
+    /**
+     * Number of times that could not be read from the time header
+     */
+    long getMalformedTimes() {
+        return malformedTimes.get();
     }
 
 }
@@ -0,0 +1,206 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The date tokens of hour, day, week or month buckets of a time zone, formatted once per bucket.
+ * <p>
+ * The bucket of the last read is checked first, so a stream of mostly ordered times is a volatile
+ * load and two comparisons per read. Other buckets are looked up in a cache of at most cacheSize
+ * buckets, from which the oldest bucket is evicted first, as late data replayed after an outage
+ * moves forward in time.
+ */
+final class TimeBuckets {
+
+    static final String YEAR = "Y";
+    static final String MONTH = "M";
+    static final String DAY = "D";
+    static final String HOUR = "H";
+    static final String WEEK = "W";
+    static final String DATE = "DATE";
+
+    /**
+     * The ISO week-based year, rendered for {@value #YEAR} by the templates holding {@value #WEEK}
+     * so that the first days of January belonging to the last week of the previous year, and the
+     * last days of December belonging to week 01, are named after the year of their week
+     */
+    static final String WEEK_YEAR = "WY";
+
+    enum Granularity {
+        HOUR, DAY, WEEK, MONTH;
+
+        static Granularity of(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported date granularity " + name
+                        + ", supported values are hour, day, week and month");
+            }
+        }
+
+        private ZonedDateTime truncate(ZonedDateTime time) {
+            switch (this) {
+                case HOUR:
+                    return time.truncatedTo(ChronoUnit.HOURS);
+                case DAY:
+                    return time.truncatedTo(ChronoUnit.DAYS);
+                case WEEK:
+                    return time.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                default:
+                    return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+            }
+        }
+
+        private ZonedDateTime next(ZonedDateTime start) {
+            switch (this) {
+                case HOUR:
+                    return start.plusHours(1);
+                case DAY:
+                    return start.plusDays(1);
+                case WEEK:
+                    return start.plusWeeks(1);
+                default:
+                    return start.plusMonths(1);
+            }
+        }
+    }
+
+    private final ZoneId zone;
+
+    private final Granularity granularity;
+
+    private final int cacheSize;
+
+    private final TreeMap<Long, Bucket> cache = new TreeMap<>();
+
+    private volatile Bucket last;
+
+    TimeBuckets(ZoneId zone, Granularity granularity, int cacheSize) {
+        this.zone = zone;
+        this.granularity = granularity;
+        this.cacheSize = Math.max(1, cacheSize);
+        this.last = new Bucket(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the bucket of the wall clock
+     */
+    Bucket now() {
+        return of(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the bucket holding the epoch millis
+     */
+    Bucket of(long millis) {
+        Bucket bucket = last;
+        if (bucket.contains(millis)) {
+            return bucket;
+        }
+        synchronized (cache) {
+            Map.Entry<Long, Bucket> entry = cache.floorEntry(millis);
+            if (entry != null && entry.getValue().contains(millis)) {
+                bucket = entry.getValue();
+            } else {
+                bucket = new Bucket(millis);
+                cache.put(bucket.start, bucket);
+                if (cache.size() > cacheSize) {
+                    cache.pollFirstEntry();
+                }
+            }
+        }
+        last = bucket;
+        return bucket;
+    }
+
+    static boolean isToken(String name) {
+        return YEAR.equals(name) || MONTH.equals(name) || DAY.equals(name) || HOUR.equals(name)
+                || WEEK.equals(name) || DATE.equals(name);
+    }
+
+    /**
+     * The formatted tokens of one bucket, named after its first instant, and the names rendered
+     * from templates holding no header
+     */
+    final class Bucket {
+
+        private final long start;
+
+        private final long end;
+
+        private final String year;
+
+        private final String month;
+
+        private final String day;
+
+        private final String hour;
+
+        private final String week;
+
+        private final String weekYear;
+
+        private final String date;
+
+        private final Map<IndexTemplate, String> names = new ConcurrentHashMap<>(4);
+
+        private Bucket(long millis) {
+            ZonedDateTime first = granularity.truncate(Instant.ofEpochMilli(millis).atZone(zone));
+            this.start = first.toInstant().toEpochMilli();
+            this.end = granularity.next(first).toInstant().toEpochMilli();
+            this.date = first.toLocalDate().toString();
+            // LocalDate#toString is yyyy-MM-dd for the years 0 to 9999
+            this.year = date.substring(0, date.length() - 6);
+            this.month = date.substring(date.length() - 5, date.length() - 3);
+            this.day = date.substring(date.length() - 2);
+            this.hour = twoDigits(first.getHour());
+            this.week = twoDigits(first.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+            int weekBasedYear = first.get(IsoFields.WEEK_BASED_YEAR);
+            this.weekYear = weekBasedYear == first.getYear() ? year : Integer.toString(weekBasedYear);
+        }
+
+        boolean contains(long millis) {
+            return millis >= start && millis < end;
+        }
+
+        String get(String token) {
+            switch (token) {
+                case YEAR:
+                    return year;
+                case MONTH:
+                    return month;
+                case DAY:
+                    return day;
+                case HOUR:
+                    return hour;
+                case WEEK:
+                    return week;
+                case WEEK_YEAR:
+                    return weekYear;
+                case DATE:
+                    return date;
+                default:
+                    return null;
+            }
+        }
+
+        Map<IndexTemplate, String> names() {
+            return names;
+        }
+
+        private String twoDigits(int value) {
+            return value < 10 ? "0" + value : Integer.toString(value);
+        }
+    }
+
+}
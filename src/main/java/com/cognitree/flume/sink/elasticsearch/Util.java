@@ -15,6 +15,7 @@
  */
 package com.cognitree.flume.sink.elasticsearch;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.flume.Context;
@@ -23,12 +24,28 @@ import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentGenerator;
+import org.elasticsearch.xcontent.XContentType;
+import org.elasticsearch.xcontent.json.JsonXContentGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
 import java.util.Map;
 import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +55,10 @@ public class Util {
 
     private static final Logger logger = LoggerFactory.getLogger(Util.class);
 
+    private static final MethodHandle JSON_GENERATOR = jsonGeneratorGetter();
+
+    private static final AtomicBoolean JSON_GENERATOR_FALLBACK_LOGGED = new AtomicBoolean();
+
     /**
      * Returns TimeValue based on the given interval
      * Interval can be in minutes, seconds, mili seconds
@@ -101,6 +122,47 @@ public class Util {
         return contextValue;
     }
 
+    /**
+     * Returns the jackson generator a json XContentBuilder writes to, so that callers can write
+     * pre-encoded field names. XContentBuilder has no public way to write a pre-encoded name, so
+     * the private field of the elasticsearch generator is read. Returns null if the builder is not
+     * json or the generator is not reachable, callers then write through the builder; the first
+     * such fallback is logged.
+     */
+    public static JsonGenerator jsonGenerator(XContentBuilder builder) {
+        XContentGenerator generator = builder.generator();
+        // the smile, yaml and cbor generators extend the json one
+        if (JSON_GENERATOR == null || builder.contentType() != XContentType.JSON
+                || !(generator instanceof JsonXContentGenerator)) {
+            logJsonGeneratorFallback(builder.contentType() + " builder");
+            return null;
+        }
+        try {
+            return (JsonGenerator) JSON_GENERATOR.invoke((JsonXContentGenerator) generator);
+        } catch (Throwable e) {
+            logJsonGeneratorFallback(String.valueOf(e));
+            return null;
+        }
+    }
+
+    private static void logJsonGeneratorFallback(String reason) {
+        if (JSON_GENERATOR_FALLBACK_LOGGED.compareAndSet(false, true)) {
+            logger.warn("Json generator not reachable ({}), field names are encoded for every document", reason);
+        }
+    }
+
+    private static MethodHandle jsonGeneratorGetter() {
+        try {
+            Field field = JsonXContentGenerator.class.getDeclaredField("generator");
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch (Exception e) {
+            logger.warn("Json generator not reachable, field names will be encoded for every document: {}",
+                    e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Add csv field to the XContentBuilder
      */
@@ -120,6 +182,7 @@ public class Util {
                 break;
             case FLOAT:
                 xContentBuilder.field(key, Float.valueOf(value));
+                break;
             case DOUBLE:
                 xContentBuilder.field(key, Double.valueOf(value));
                 break;
@@ -171,6 +234,27 @@ public class Util {
         return targetString;
     }
 
+    /**
+     * Parses a formatted time into epoch millis. Times without an offset are read in the zone of
+     * the formatter, and dates without a time of day stand for their first instant, so that date
+     * only patterns such as yyyy-MM-dd can be used.
+     *
+     * @throws DateTimeException if the text does not match the pattern or holds no date
+     */
+    public static long parseEpochMillis(DateTimeFormatter formatter, String text) {
+        TemporalAccessor parsed = formatter.parse(text);
+        if (parsed.isSupported(ChronoField.INSTANT_SECONDS)) {
+            return Instant.from(parsed).toEpochMilli();
+        }
+        LocalDate date = parsed.query(TemporalQueries.localDate());
+        ZoneId zone = parsed.query(TemporalQueries.zone());
+        if (date == null || zone == null) {
+            throw new DateTimeException("No date in [" + text + "]");
+        }
+        LocalTime time = parsed.query(TemporalQueries.localTime());
+        return (time == null ? date.atStartOfDay(zone) : date.atTime(time).atZone(zone)).toInstant().toEpochMilli();
+    }
+
     public static String dump(Event event) {
         if (event == null) {
             return "null";
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.apache.flume.EventDeliveryException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the requests of the transactions waiting for elasticsearch to acknowledge them,
+ * so that a transaction is committed only once all of its items are indexed.
+ * <p>
+ * The bulk processor retries rejected items with a new bulk request, so items are
+ * matched against every attempt and the outcome is settled when the bulk completes.
+ */
+public class AckTracker {
+
+    private final Map<DocWriteRequest<?>, Batch> pending = new ConcurrentHashMap<>();
+
+    private final Map<DocWriteRequest<?>, String> failures = new ConcurrentHashMap<>();
+
+    private final Set<DocWriteRequest<?>> deferred = ConcurrentHashMap.newKeySet();
+
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    public void track(DocWriteRequest<?> request, Batch batch) {
+        batch.pending.incrementAndGet();
+        pending.put(request, batch);
+    }
+
+    /**
+     * Wraps the listener of a single bulk attempt to record the outcome of its items
+     */
+    ActionListener<BulkResponse> wrap(BulkRequest request, ActionListener<BulkResponse> listener) {
+        return new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                onAttempt(request, response);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                listener.onFailure(e);
+            }
+        };
+    }
+
+    void onAttempt(BulkRequest request, BulkResponse response) {
+        List<DocWriteRequest<?>> requests = request.requests();
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length && i < requests.size(); i++) {
+            DocWriteRequest<?> itemRequest = requests.get(i);
+            if (items[i].isFailed()) {
+                failures.put(itemRequest, items[i].getFailureMessage());
+            } else {
+                failures.remove(itemRequest);
+                Batch batch = pending.remove(itemRequest);
+                if (batch != null) {
+                    batch.ack();
+                }
+            }
+        }
+    }
+
+    /**
+     * Acknowledges a failed item once it is written to the dead letter queue
+     */
+    void settle(DocWriteRequest<?> request) {
+        failures.remove(request);
+        Batch batch = pending.remove(request);
+        if (batch != null) {
+            batch.ack();
+        }
+    }
+
+    /**
+     * Fails the transaction of an item, used when the dead letter queue dropped it
+     */
+    void fail(DocWriteRequest<?> request, String reason) {
+        failures.remove(request);
+        Batch batch = pending.remove(request);
+        if (batch != null) {
+            batch.fail(reason);
+        }
+    }
+
+    /**
+     * Keeps a failed item pending when its bulk completes, as it will be sent again
+     */
+    void defer(DocWriteRequest<?> request) {
+        deferred.add(request);
+    }
+
+    /**
+     * Fails the items of a completed bulk that were not acknowledged by any attempt
+     */
+    void onCompletion(BulkRequest request) {
+        for (DocWriteRequest<?> itemRequest : request.requests()) {
+            String failure = failures.remove(itemRequest);
+            if (deferred.remove(itemRequest)) {
+                continue;
+            }
+            Batch batch = pending.remove(itemRequest);
+            if (batch != null) {
+                batch.fail(failure != null ? failure : "item was not acknowledged");
+            }
+        }
+    }
+
+    void onFailure(BulkRequest request, Throwable cause) {
+        for (DocWriteRequest<?> itemRequest : request.requests()) {
+            failures.remove(itemRequest);
+            if (deferred.remove(itemRequest)) {
+                continue;
+            }
+            Batch batch = pending.remove(itemRequest);
+            if (batch != null) {
+                batch.fail(String.valueOf(cause));
+            }
+        }
+    }
+
+    /**
+     * The items added by one channel transaction
+     */
+    public static class Batch {
+
+        // one extra count held until the batch is sealed
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile String failure;
+
+        private void ack() {
+            if (pending.decrementAndGet() == 0) {
+                done.countDown();
+            }
+        }
+
+        private void fail(String reason) {
+            failure = reason;
+            done.countDown();
+        }
+
+        /**
+         * Marks that all items of the transaction have been tracked
+         */
+        public void seal() {
+            ack();
+        }
+
+        /**
+         * Waits until every item is acknowledged, throws if an item failed or the timeout elapsed
+         */
+        public void await(long timeout, TimeUnit unit) throws EventDeliveryException, InterruptedException {
+            if (!done.await(timeout, unit)) {
+                throw new EventDeliveryException("Timed out waiting for elasticsearch to acknowledge "
+                        + pending.get() + " items");
+            }
+            if (failure != null) {
+                throw new EventDeliveryException("Bulk items were not indexed: " + failure);
+            }
+        }
+    }
+
+}
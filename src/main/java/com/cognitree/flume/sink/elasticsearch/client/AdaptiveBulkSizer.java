@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import com.cognitree.flume.sink.elasticsearch.ElasticSearchSinkCounter;
+import com.cognitree.flume.sink.elasticsearch.Util;
+import com.google.common.base.Preconditions;
+import org.apache.flume.Context;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.cognitree.flume.sink.elasticsearch.Constants.*;
+
+/**
+ * Sizes the bulk requests with additive increase / multiplicative decrease.
+ * <p>
+ * The number of actions per bulk grows while bulks complete under the target latency and
+ * is cut when a bulk is slower, has rejected items or fails, always staying between the
+ * configured bounds. The bulk processor is built with the upper bound and the sink flushes
+ * it once the current number of actions has been added.
+ */
+public class AdaptiveBulkSizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBulkSizer.class);
+
+    private final int minActions;
+
+    private final int maxActions;
+
+    private final int increase;
+
+    private final double decrease;
+
+    private final long targetLatencyMillis;
+
+    private final ElasticSearchSinkCounter sinkCounter;
+
+    private final AtomicInteger pendingActions = new AtomicInteger();
+
+    private volatile int currentActions;
+
+    AdaptiveBulkSizer(int initialActions, int minActions, int maxActions, int increase,
+                      double decrease, long targetLatencyMillis, ElasticSearchSinkCounter sinkCounter) {
+        Preconditions.checkArgument(minActions > 0 && minActions <= maxActions,
+                "invalid adaptive bulk bounds [%s, %s]", minActions, maxActions);
+        Preconditions.checkArgument(decrease > 0 && decrease < 1,
+                "adaptive bulk decrease must be between 0 and 1");
+        this.minActions = minActions;
+        this.maxActions = maxActions;
+        this.increase = increase;
+        this.decrease = decrease;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.sinkCounter = sinkCounter;
+        setCurrentActions(initialActions);
+    }
+
+    /**
+     * Returns the sizer configured in the context, null if adaptive sizing is disabled
+     */
+    public static AdaptiveBulkSizer create(Context context, ElasticSearchSinkCounter sinkCounter) {
+        if (!context.getBoolean(ES_BULK_ADAPTIVE, false)) {
+            return null;
+        }
+        AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(
+                context.getInteger(ES_BULK_ACTIONS, DEFAULT_ES_BULK_ACTIONS),
+                context.getInteger(ES_BULK_ADAPTIVE_MIN_ACTIONS, DEFAULT_ES_BULK_ADAPTIVE_MIN_ACTIONS),
+                context.getInteger(ES_BULK_ADAPTIVE_MAX_ACTIONS, DEFAULT_ES_BULK_ADAPTIVE_MAX_ACTIONS),
+                context.getInteger(ES_BULK_ADAPTIVE_INCREASE, DEFAULT_ES_BULK_ADAPTIVE_INCREASE),
+                context.getDouble(ES_BULK_ADAPTIVE_DECREASE, DEFAULT_ES_BULK_ADAPTIVE_DECREASE),
+                Util.getTimeValue(context.getString(ES_BULK_ADAPTIVE_TARGET_LATENCY),
+                        DEFAULT_ES_BULK_ADAPTIVE_TARGET_LATENCY).millis(),
+                sinkCounter);
+        LOG.info("Adaptive bulk sizing: actions [{}, {}], target latency [{}ms]",
+                sizer.minActions, sizer.maxActions, sizer.targetLatencyMillis);
+        return sizer;
+    }
+
+    public int getMaxActions() {
+        return maxActions;
+    }
+
+    public int getCurrentActions() {
+        return currentActions;
+    }
+
+    /**
+     * Counts an added action, returns true when the bulk should be flushed
+     */
+    public boolean onAdd() {
+        return pendingActions.incrementAndGet() >= currentActions;
+    }
+
+    void onBulk(int actions) {
+        pendingActions.updateAndGet(pending -> Math.max(0, pending - actions));
+    }
+
+    void onResponse(BulkResponse response) {
+        int rejected = 0;
+        if (response.hasFailures()) {
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed() && item.status() == RestStatus.TOO_MANY_REQUESTS) {
+                    rejected++;
+                }
+            }
+        }
+        onResponse(response.getTook().millis(), rejected);
+    }
+
+    synchronized void onResponse(long tookMillis, int rejected) {
+        if (rejected > 0 || tookMillis > targetLatencyMillis) {
+            shrink();
+        } else {
+            setCurrentActions(currentActions + increase);
+        }
+    }
+
+    synchronized void onFailure() {
+        shrink();
+    }
+
+    private void shrink() {
+        int previous = currentActions;
+        setCurrentActions((int) (previous * decrease));
+        LOG.debug("Bulk actions decreased from [{}] to [{}]", previous, currentActions);
+    }
+
+    /**
+     * Withdraws the actions of this sizer from the gauge, once its stream is closed
+     */
+    synchronized void close() {
+        if (sinkCounter != null) {
+            sinkCounter.addBulkActionsCurrent(-currentActions);
+        }
+        currentActions = 0;
+    }
+
+    private void setCurrentActions(int actions) {
+        int previous = currentActions;
+        currentActions = Math.max(minActions, Math.min(maxActions, actions));
+        if (sinkCounter != null) {
+            sinkCounter.addBulkActionsCurrent(currentActions - previous);
+        }
+    }
+
+}
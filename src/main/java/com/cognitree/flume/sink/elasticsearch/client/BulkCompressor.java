@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import com.cognitree.flume.sink.elasticsearch.ElasticSearchSinkCounter;
+import org.apache.flume.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static com.cognitree.flume.sink.elasticsearch.Constants.*;
+
+/**
+ * Gzips bulk request bodies above a size threshold.
+ * <p>
+ * Each thread reuses its own {@link Deflater}, so compressing a body allocates nothing
+ * besides the output buffer. The bytes in and out and the CPU time spent compressing
+ * are reported to the sink counter.
+ */
+public class BulkCompressor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkCompressor.class);
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int level;
+
+    private final int threshold;
+
+    private final ElasticSearchSinkCounter sinkCounter;
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    private final ThreadLocal<byte[]> chunks = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    BulkCompressor(int level, int threshold, ElasticSearchSinkCounter sinkCounter) {
+        this.level = level;
+        this.threshold = threshold;
+        this.sinkCounter = sinkCounter;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    /**
+     * Returns the compressor configured in the context, null if compression is disabled
+     */
+    public static BulkCompressor create(Context context, ElasticSearchSinkCounter sinkCounter) {
+        if (!context.getBoolean(ES_COMPRESSION_ENABLED, false)) {
+            return null;
+        }
+        BulkCompressor compressor = new BulkCompressor(
+                context.getInteger(ES_COMPRESSION_LEVEL, DEFAULT_ES_COMPRESSION_LEVEL),
+                context.getInteger(ES_COMPRESSION_THRESHOLD, DEFAULT_ES_COMPRESSION_THRESHOLD),
+                sinkCounter);
+        LOG.info("Bulk compression: level [{}], threshold [{}] bytes", compressor.level, compressor.threshold);
+        return compressor;
+    }
+
+    /**
+     * Writes the gzip of the bytes to the output.
+     *
+     * @return false if the body is below the threshold and was left uncompressed
+     */
+    public boolean compress(byte[] bytes, int offset, int length, ByteArrayOutputStream out) {
+        if (length < threshold) {
+            return false;
+        }
+        boolean cpuTime = THREADS.isCurrentThreadCpuTimeSupported();
+        long start = cpuTime ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+        out.reset();
+        out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        Deflater deflater = deflaters.get();
+        byte[] chunk = chunks.get();
+        deflater.reset();
+        deflater.setInput(bytes, offset, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            out.write(chunk, 0, count);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        writeInt((int) crc.getValue(), out);
+        writeInt(length, out);
+        long end = cpuTime ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+        sinkCounter.addBulkCompression(length, out.size(), end - start);
+        return true;
+    }
+
+    private static void writeInt(int value, ByteArrayOutputStream out) {
+        // gzip trailers are little endian
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+}
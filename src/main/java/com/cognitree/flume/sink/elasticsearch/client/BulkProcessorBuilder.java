@@ -15,14 +15,20 @@
  */
 package com.cognitree.flume.sink.elasticsearch.client;
 
+import com.cognitree.flume.sink.elasticsearch.BulkMetrics;
+import com.cognitree.flume.sink.elasticsearch.DeadLetterQueue;
 import com.cognitree.flume.sink.elasticsearch.ElasticSearchSink;
+import com.cognitree.flume.sink.elasticsearch.ElasticSearchSinkCounter;
 import com.cognitree.flume.sink.elasticsearch.Util;
 import org.apache.flume.Context;
 import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.unit.ByteSizeValue;
@@ -30,6 +36,9 @@ import org.elasticsearch.core.TimeValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 
 import static com.cognitree.flume.sink.elasticsearch.Constants.*;
@@ -56,6 +65,8 @@ public class BulkProcessorBuilder {
 
     private Integer backoffPolicyRetries;
 
+    private String bulkEncoder;
+
     private ElasticSearchSink elasticSearchSink;
 
     private BulkProcessorBuilder() {
@@ -78,37 +89,90 @@ public class BulkProcessorBuilder {
                 DEFAULT_ES_BACKOFF_POLICY_START_DELAY);
         builder.backoffPolicyRetries = context.getInteger(ES_BACKOFF_POLICY_RETRIES,
                 DEFAULT_ES_BACKOFF_POLICY_RETRIES);
+        builder.bulkEncoder = context.getString(ES_BULK_ENCODER, DEFAULT_ES_BULK_ENCODER);
         return builder;
     }
 
-    public BulkProcessor build(ElasticSearchSink elasticSearchSink) {
+    /**
+     * Builds a bulk processor flushed by the given adaptive sizer, null for a fixed number of actions
+     */
+    public BulkProcessor build(ElasticSearchSink elasticSearchSink, AdaptiveBulkSizer adaptiveSizer) {
         this.elasticSearchSink = elasticSearchSink;
         RestHighLevelClient client = elasticSearchSink.getClient();
         LOG.trace("Bulk processor name: [{}]  bulkActions: [{}], bulkSize: [{}], flush interval time: [{}]," +
-                        " concurrent Request: [{}], backoffPolicyTimeInterval: [{}], backoffPolicyRetries: [{}] ",
+                        " concurrent Request: [{}], backoffPolicyTimeInterval: [{}], backoffPolicyRetries: [{}], bulkEncoder: [{}] ",
                 bulkProcessorName, bulkActions, bulkSize, flushIntervalTime,
-                concurrentRequest, backoffPolicyTimeInterval, backoffPolicyRetries);
-        BiConsumer<BulkRequest, ActionListener<BulkResponse>> bulkConsumer =
-                (request, bulkListener) -> client
-                        .bulkAsync(request, RequestOptions.DEFAULT, bulkListener);
-        return BulkProcessor.builder(bulkConsumer, getListener())
-                .setBulkActions(bulkActions)
+                concurrentRequest, backoffPolicyTimeInterval, backoffPolicyRetries, bulkEncoder);
+        AckTracker ackTracker = elasticSearchSink.getAckTracker();
+        // rejected items are retried one by one by the retry queue instead of the whole bulk
+        BackoffPolicy backoffPolicy = elasticSearchSink.getRetryQueue() != null ?
+                BackoffPolicy.noBackoff() :
+                BackoffPolicy.exponentialBackoff(
+                        Util.getTimeValue(backoffPolicyTimeInterval,
+                                DEFAULT_ES_BACKOFF_POLICY_START_DELAY),
+                        backoffPolicyRetries);
+        BiConsumer<BulkRequest, ActionListener<BulkResponse>> bulkConsumer;
+        if ("ndjson".equalsIgnoreCase(bulkEncoder)) {
+            // one pooled buffer per in-flight bulk plus the one being filled
+            NdjsonBulkEncoder encoder = new NdjsonBulkEncoder(client.getLowLevelClient(),
+                    elasticSearchSink.getBulkCompressor(), concurrentRequest + 1);
+            bulkConsumer = (request, bulkListener) -> {
+                ActionListener<BulkResponse> listener = attemptListener(request, bulkListener, ackTracker);
+                if (NdjsonBulkEncoder.canEncode(request)) {
+                    encoder.bulkAsync(request, listener);
+                } else {
+                    client.bulkAsync(request, RequestOptions.DEFAULT, listener);
+                }
+            };
+        } else {
+            bulkConsumer = (request, bulkListener) -> client
+                    .bulkAsync(request, RequestOptions.DEFAULT, attemptListener(request, bulkListener, ackTracker));
+        }
+        return BulkProcessor.builder(bulkConsumer, getListener(adaptiveSizer))
+                .setBulkActions(adaptiveSizer == null ? bulkActions : adaptiveSizer.getMaxActions())
                 .setBulkSize(bulkSize)
                 .setFlushInterval(flushIntervalTime)
                 .setConcurrentRequests(concurrentRequest)
-                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(
-                        Util.getTimeValue(backoffPolicyTimeInterval,
-                                DEFAULT_ES_BACKOFF_POLICY_START_DELAY),
-                        backoffPolicyRetries))
+                .setBackoffPolicy(backoffPolicy)
                 .build();
     }
 
-    private BulkProcessor.Listener getListener() {
+    /**
+     * Wraps the listener of a single bulk attempt. The items of the response are classified
+     * against the exact request of the attempt: with the exponential backoff the response given
+     * to the bulk processor listener accumulates several attempts and its items no longer line
+     * up with the original request.
+     */
+    private ActionListener<BulkResponse> attemptListener(BulkRequest request, ActionListener<BulkResponse> bulkListener,
+                                                         AckTracker ackTracker) {
+        ActionListener<BulkResponse> listener = new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                onItems(request, response);
+                bulkListener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                bulkListener.onFailure(e);
+            }
+        };
+        return ackTracker == null ? listener : ackTracker.wrap(request, listener);
+    }
+
+    private BulkProcessor.Listener getListener(AdaptiveBulkSizer adaptiveSizer) {
+        // execution ids are only unique within a bulk processor, each one has its own listener
+        Map<Long, Long> startTimes = new ConcurrentHashMap<>();
         return new BulkProcessor.Listener() {
             @Override
             public void beforeBulk(long executionId, BulkRequest request) {
                 LOG.trace("Bulk Execution [" + executionId + "]\n" +
                         "No of actions " + request.numberOfActions());
+                startTimes.put(executionId, System.nanoTime());
+                elasticSearchSink.getBulkMetrics().onBulkStart();
+                if (adaptiveSizer != null) {
+                    adaptiveSizer.onBulk(request.numberOfActions());
+                }
             }
             @Override
             public void afterBulk(long executionId,
@@ -119,15 +183,149 @@ public class BulkProcessorBuilder {
                         "Failures: " + response.hasFailures() + "\n" +
                         "Failures Message: " + response.buildFailureMessage() + "\n" +
                         "Count: " + response.getItems().length);
+                elasticSearchSink.getConnectionMonitor().onSuccess();
+                int failedItems = 0;
+                if (response.hasFailures()) {
+                    failedItems = countItemFailures(response);
+                }
+                elasticSearchSink.getBulkMetrics().onBulk(elapsed(executionId), request.numberOfActions(),
+                        request.estimatedSizeInBytes(), failedItems);
+                AckTracker ackTracker = elasticSearchSink.getAckTracker();
+                if (ackTracker != null) {
+                    ackTracker.onCompletion(request);
+                }
+                if (adaptiveSizer != null) {
+                    adaptiveSizer.onResponse(response);
+                }
             }
             @Override
             public void afterBulk(long executionId,
                                   BulkRequest request,
                                   Throwable failure) {
+                elasticSearchSink.getBulkMetrics().onBulkFailure(elapsed(executionId),
+                        request.numberOfActions(), request.estimatedSizeInBytes());
+                BulkRetryQueue retryQueue = elasticSearchSink.getRetryQueue();
+                AckTracker ackTracker = elasticSearchSink.getAckTracker();
+                if (retryQueue != null) {
+                    for (DocWriteRequest<?> itemRequest : request.requests()) {
+                        retry(itemRequest, retryQueue, ackTracker);
+                    }
+                }
+                if (ackTracker != null) {
+                    ackTracker.onFailure(request, failure);
+                }
+                if (adaptiveSizer != null) {
+                    adaptiveSizer.onFailure();
+                }
                 elasticSearchSink.assertConnection();
                 LOG.error("Unable to send request to elasticsearch.", failure);
             }
+
+            private long elapsed(long executionId) {
+                Long start = startTimes.remove(executionId);
+                return start == null ? 0 : System.nanoTime() - start;
+            }
         };
     }
 
+    /**
+     * Records the failed items of the final response of a bulk, after the backoff retries of the
+     * bulk processor, returns their number. Only the items are read, not their requests.
+     */
+    private int countItemFailures(BulkResponse response) {
+        BulkRetryQueue retryQueue = elasticSearchSink.getRetryQueue();
+        BulkMetrics bulkMetrics = elasticSearchSink.getBulkMetrics();
+        int failed = 0;
+        for (BulkItemResponse item : response.getItems()) {
+            if (!item.isFailed()) {
+                continue;
+            }
+            failed++;
+            bulkMetrics.onItemFailure(item.getFailure().getCause());
+            if (retryQueue == null && BulkRetryQueue.isRetryable(item.status())) {
+                LOG.error("Bulk item for index [{}], id [{}] failed with a transient error " +
+                        "and will not be retried: {}", item.getIndex(), item.getId(), item.getFailureMessage());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Re-enqueues the items of one attempt that failed with a transient error and hands the
+     * others to the failure path, so that a single rejecting shard does not fail the whole bulk.
+     * Transient failures are left to the backoff of the bulk processor when there is no retry queue.
+     */
+    private void onItems(BulkRequest request, BulkResponse response) {
+        BulkRetryQueue retryQueue = elasticSearchSink.getRetryQueue();
+        if (!response.hasFailures() && retryQueue == null) {
+            return;
+        }
+        AckTracker ackTracker = elasticSearchSink.getAckTracker();
+        ElasticSearchSinkCounter sinkCounter = elasticSearchSink.getSinkCounter();
+        List<DocWriteRequest<?>> requests = request.requests();
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length && i < requests.size(); i++) {
+            DocWriteRequest<?> itemRequest = requests.get(i);
+            BulkItemResponse item = items[i];
+            if (!item.isFailed()) {
+                if (retryQueue != null) {
+                    retryQueue.forget(itemRequest);
+                }
+                continue;
+            }
+            if (BulkRetryQueue.isRetryable(item.status())) {
+                if (retryQueue != null && !retry(itemRequest, retryQueue, ackTracker)) {
+                    LOG.error("Bulk item for index [{}], id [{}] failed with a transient error " +
+                            "and will not be retried: {}", item.getIndex(), item.getId(), item.getFailureMessage());
+                }
+            } else {
+                if (retryQueue != null) {
+                    retryQueue.forget(itemRequest);
+                }
+                sinkCounter.incrementBulkItemFailedCount();
+                LOG.error("Bulk item for index [{}], id [{}] failed permanently: {}",
+                        item.getIndex(), item.getId(), item.getFailureMessage());
+                deadLetter(itemRequest, item, ackTracker);
+            }
+        }
+    }
+
+    /**
+     * Hands a permanently failed document to the dead letter queue. The item stays pending until
+     * the document is written to a segment, then counts as acknowledged so that a bad document does
+     * not roll its transaction back forever. A document the queue drops fails its transaction.
+     */
+    private void deadLetter(DocWriteRequest<?> itemRequest, BulkItemResponse item, AckTracker ackTracker) {
+        DeadLetterQueue deadLetterQueue = elasticSearchSink.getDeadLetterQueue();
+        if (deadLetterQueue == null || !(itemRequest instanceof IndexRequest)) {
+            return;
+        }
+        IndexRequest indexRequest = (IndexRequest) itemRequest;
+        if (ackTracker == null) {
+            deadLetterQueue.offer(indexRequest.index(), indexRequest.id(), indexRequest.source(), item.getFailureMessage());
+            return;
+        }
+        String failure = item.getFailureMessage();
+        ackTracker.defer(itemRequest);
+        deadLetterQueue.offer(indexRequest.index(), indexRequest.id(), indexRequest.source(), failure, stored -> {
+            if (stored) {
+                ackTracker.settle(itemRequest);
+            } else {
+                ackTracker.fail(itemRequest, failure + ", dropped by the dead letter queue");
+            }
+        });
+    }
+
+    private boolean retry(DocWriteRequest<?> itemRequest, BulkRetryQueue retryQueue, AckTracker ackTracker) {
+        if (!retryQueue.offer(itemRequest)) {
+            elasticSearchSink.getSinkCounter().incrementBulkItemRetryExhaustedCount();
+            return false;
+        }
+        elasticSearchSink.getSinkCounter().incrementBulkItemRetryCount();
+        if (ackTracker != null) {
+            ackTracker.defer(itemRequest);
+        }
+        return true;
+    }
+
 }
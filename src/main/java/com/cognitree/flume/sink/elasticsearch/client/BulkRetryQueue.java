@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import com.cognitree.flume.sink.elasticsearch.Util;
+import org.apache.flume.Context;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.cognitree.flume.sink.elasticsearch.Constants.*;
+
+/**
+ * Bounded queue of bulk items that failed with a transient error.
+ * <p>
+ * Each item is re-added to the bulk after an exponential backoff with jitter,
+ * until it succeeds or the maximum number of attempts is reached. A slot is reserved
+ * atomically before an item is queued, and items are refused once the queue is stopped,
+ * so that they take the permanent failure path instead of waiting in a queue nobody reads.
+ */
+public class BulkRetryQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkRetryQueue.class);
+
+    private final DelayQueue<Entry> queue = new DelayQueue<>();
+
+    private final Map<DocWriteRequest<?>, Integer> attempts = new ConcurrentHashMap<>();
+
+    private final int capacity;
+
+    // slots taken by queued items, reserved before they are added
+    private final AtomicInteger slots = new AtomicInteger();
+
+    private final int maxAttempts;
+
+    private final long backoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private Consumer<DocWriteRequest<?>> resubmit;
+
+    private Thread worker;
+
+    private volatile boolean running;
+
+    BulkRetryQueue(int capacity, int maxAttempts, long backoffMillis, long maxBackoffMillis) {
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Returns the queue configured in the context, null if item retries are disabled
+     */
+    public static BulkRetryQueue create(Context context) {
+        if (!context.getBoolean(ES_RETRY_ENABLED, false)) {
+            return null;
+        }
+        BulkRetryQueue retryQueue = new BulkRetryQueue(
+                context.getInteger(ES_RETRY_QUEUE_SIZE, DEFAULT_ES_RETRY_QUEUE_SIZE),
+                context.getInteger(ES_RETRY_MAX_ATTEMPTS, DEFAULT_ES_RETRY_MAX_ATTEMPTS),
+                Util.getTimeValue(context.getString(ES_RETRY_BACKOFF), DEFAULT_ES_RETRY_BACKOFF).millis(),
+                Util.getTimeValue(context.getString(ES_RETRY_BACKOFF_MAX), DEFAULT_ES_RETRY_BACKOFF_MAX).millis());
+        LOG.info("Bulk item retries: queue size [{}], max attempts [{}], backoff [{}ms, {}ms]",
+                retryQueue.capacity, retryQueue.maxAttempts, retryQueue.backoffMillis, retryQueue.maxBackoffMillis);
+        return retryQueue;
+    }
+
+    /**
+     * Returns true for failures expected to succeed when the item is sent again
+     */
+    public static boolean isRetryable(RestStatus status) {
+        switch (status) {
+            case TOO_MANY_REQUESTS:
+            case SERVICE_UNAVAILABLE:
+            case BAD_GATEWAY:
+            case GATEWAY_TIMEOUT:
+            case REQUEST_TIMEOUT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Schedules the item to be sent again.
+     *
+     * @return false if the queue is stopped or full or the item has no attempts left
+     */
+    public boolean offer(DocWriteRequest<?> request) {
+        if (!running || !reserve()) {
+            return false;
+        }
+        int attempt = attempts.merge(request, 1, Integer::sum);
+        if (attempt > maxAttempts) {
+            attempts.remove(request);
+            slots.decrementAndGet();
+            return false;
+        }
+        Entry entry = new Entry(request, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff(attempt)));
+        queue.add(entry);
+        // stopped meanwhile: the item is taken back unless stop already drained it
+        if (!running && queue.remove(entry)) {
+            attempts.remove(request);
+            slots.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int taken = slots.get();
+            if (taken >= capacity) {
+                return false;
+            }
+            if (slots.compareAndSet(taken, taken + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Forgets the attempts of an item that will not be retried anymore
+     */
+    public void forget(DocWriteRequest<?> request) {
+        if (!attempts.isEmpty()) {
+            attempts.remove(request);
+        }
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random
+     */
+    private long backoff(int attempt) {
+        long delay = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 30));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    public void start(String name, Consumer<DocWriteRequest<?>> resubmit) {
+        this.resubmit = resubmit;
+        running = true;
+        worker = new Thread(this::run, name + "-retry");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the retry thread and re-adds the remaining items right away
+     */
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // drainTo only takes expired entries, those still backing off are removed one by one
+        for (Entry entry : queue.toArray(new Entry[0])) {
+            if (queue.remove(entry)) {
+                slots.decrementAndGet();
+                resubmit(entry.request);
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    slots.decrementAndGet();
+                    resubmit(entry.request);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void resubmit(DocWriteRequest<?> request) {
+        try {
+            resubmit.accept(request);
+        } catch (Exception e) {
+            attempts.remove(request);
+            LOG.error("Could not re-add bulk item to index [" + request.index() + "]", e);
+        }
+    }
+
+    private static final class Entry implements Delayed {
+
+        private final DocWriteRequest<?> request;
+
+        private final long dueNanos;
+
+        private Entry(DocWriteRequest<?> request, long dueNanos) {
+            this.request = request;
+            this.dueNanos = dueNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Entry) other).dueNanos);
+        }
+    }
+
+}
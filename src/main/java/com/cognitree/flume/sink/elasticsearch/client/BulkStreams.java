@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import com.cognitree.flume.sink.elasticsearch.ElasticSearchSinkCounter;
+import com.cognitree.flume.sink.elasticsearch.Util;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.apache.flume.Context;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static com.cognitree.flume.sink.elasticsearch.Constants.*;
+
+/**
+ * Routes the bulk requests to independent bulk processors.
+ * <p>
+ * By default every request goes to a single shared processor. When streams are enabled each
+ * target index, or each configured group of indices, gets its own processor with its own buffer,
+ * concurrent request slots, backoff and adaptive sizer, so a slow index does not hold the others
+ * back. Streams idle for longer than the configured time are flushed and closed, and once the
+ * maximum number of streams, not counting the default one, is reached further indices share the
+ * default processor.
+ */
+public class BulkStreams {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkStreams.class);
+
+    private static final String SHARED = "";
+
+    private final boolean perIndex;
+
+    private final Map<String, Pattern> groups;
+
+    private final int maxStreams;
+
+    private final long idleMillis;
+
+    private final Supplier<AdaptiveBulkSizer> sizers;
+
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+    // the streams opened besides the shared one
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private Function<AdaptiveBulkSizer, BulkProcessor> processors;
+
+    private ScheduledExecutorService reaper;
+
+    BulkStreams(boolean perIndex, Map<String, Pattern> groups, int maxStreams, long idleMillis,
+                Supplier<AdaptiveBulkSizer> sizers) {
+        this.perIndex = perIndex;
+        this.groups = groups;
+        this.maxStreams = maxStreams;
+        this.idleMillis = idleMillis;
+        this.sizers = sizers;
+    }
+
+    public static BulkStreams create(Context context, ElasticSearchSinkCounter sinkCounter) {
+        boolean perIndex = "index".equalsIgnoreCase(context.getString(ES_BULK_STREAMS, DEFAULT_ES_BULK_STREAMS));
+        Map<String, Pattern> groups = parseGroups(context.getString(ES_BULK_STREAMS_GROUPS));
+        BulkStreams bulkStreams = new BulkStreams(perIndex, groups,
+                context.getInteger(ES_BULK_STREAMS_MAX, DEFAULT_ES_BULK_STREAMS_MAX),
+                Util.getTimeValue(context.getString(ES_BULK_STREAMS_IDLE), DEFAULT_ES_BULK_STREAMS_IDLE).millis(),
+                () -> AdaptiveBulkSizer.create(context, sinkCounter));
+        if (perIndex) {
+            LOG.info("Bulk streams per index: groups {}, max streams [{}], idle [{}ms]",
+                    groups.keySet(), bulkStreams.maxStreams, bulkStreams.idleMillis);
+        }
+        return bulkStreams;
+    }
+
+    /**
+     * Parses comma separated name:pattern pairs, patterns may use * as a wildcard
+     */
+    static Map<String, Pattern> parseGroups(String value) {
+        Map<String, Pattern> groups = new LinkedHashMap<>();
+        if (StringUtils.isBlank(value)) {
+            return groups;
+        }
+        for (String group : value.split(COMMA)) {
+            String[] parts = group.trim().split(COLONS, 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Bulk stream group [" + group + "] is not name:pattern");
+            }
+            List<String> literals = new ArrayList<>();
+            for (String literal : parts[1].trim().split("\\*", -1)) {
+                literals.add(Pattern.quote(literal));
+            }
+            groups.put(parts[0].trim(), Pattern.compile(String.join(".*", literals)));
+        }
+        return groups;
+    }
+
+    /**
+     * Creates the shared stream, the given function builds the processor of a stream
+     */
+    public void start(String name, Function<AdaptiveBulkSizer, BulkProcessor> processors) {
+        this.processors = processors;
+        streams.put(SHARED, new Stream(SHARED));
+        if (perIndex) {
+            reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat(name + "-bulk-stream-reaper")
+                    .setDaemon(true)
+                    .build());
+            long period = Math.max(1000, idleMillis / 2);
+            reaper.scheduleWithFixedDelay(this::reclaimIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void add(DocWriteRequest<?> request) {
+        while (true) {
+            Stream stream = stream(request.index());
+            synchronized (stream) {
+                // a stream reclaimed in the meantime is replaced by a new one
+                if (!stream.closed) {
+                    stream.add(request);
+                    return;
+                }
+            }
+        }
+    }
+
+    public void flush() {
+        for (Stream stream : streams.values()) {
+            synchronized (stream) {
+                if (!stream.closed) {
+                    stream.processor.flush();
+                }
+            }
+        }
+    }
+
+    int size() {
+        return streams.size();
+    }
+
+    /**
+     * Closes every stream, waiting up to the timeout for the in-flight bulks of each
+     */
+    public void awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        for (Stream stream : streams.values()) {
+            synchronized (stream) {
+                stream.closed = true;
+            }
+            stream.processor.awaitClose(timeout, unit);
+            stream.close();
+        }
+        streams.clear();
+        opened.set(0);
+    }
+
+    public void close() {
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        for (Stream stream : streams.values()) {
+            synchronized (stream) {
+                stream.closed = true;
+            }
+            stream.processor.close();
+            stream.close();
+        }
+        streams.clear();
+        opened.set(0);
+    }
+
+    private Stream stream(String index) {
+        if (!perIndex) {
+            return streams.get(SHARED);
+        }
+        String key = key(index);
+        Stream stream = streams.get(key);
+        if (stream != null) {
+            return stream;
+        }
+        stream = streams.computeIfAbsent(key, k -> {
+            if (opened.incrementAndGet() > maxStreams) {
+                opened.decrementAndGet();
+                return null;
+            }
+            LOG.debug("Opening bulk stream [{}]", k);
+            return new Stream(k);
+        });
+        return stream != null ? stream : streams.get(SHARED);
+    }
+
+    private String key(String index) {
+        for (Map.Entry<String, Pattern> group : groups.entrySet()) {
+            if (group.getValue().matcher(index).matches()) {
+                return group.getKey();
+            }
+        }
+        return index;
+    }
+
+    void reclaimIdle() {
+        long now = System.currentTimeMillis();
+        for (Stream stream : streams.values()) {
+            if (stream.key.equals(SHARED) || now - stream.lastUsed < idleMillis) {
+                continue;
+            }
+            synchronized (stream) {
+                if (now - stream.lastUsed < idleMillis || !streams.remove(stream.key, stream)) {
+                    continue;
+                }
+                stream.closed = true;
+            }
+            opened.decrementAndGet();
+            LOG.debug("Closing idle bulk stream [{}]", stream.key);
+            stream.processor.close();
+            stream.close();
+        }
+    }
+
+    private final class Stream {
+
+        private final String key;
+
+        private final AdaptiveBulkSizer sizer;
+
+        private final BulkProcessor processor;
+
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private boolean closed;
+
+        private Stream(String key) {
+            this.key = key;
+            this.sizer = sizers.get();
+            this.processor = processors.apply(sizer);
+        }
+
+        private void close() {
+            if (sizer != null) {
+                sizer.close();
+            }
+        }
+
+        private void add(DocWriteRequest<?> request) {
+            lastUsed = System.currentTimeMillis();
+            processor.add(request);
+            if (sizer != null && sizer.onAdd()) {
+                processor.flush();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker guarding the elasticsearch connection.
+ * <p>
+ * A failed bulk opens the circuit and a single scheduled probe pings elasticsearch, doubling
+ * its interval up to the maximum while the ping fails. A successful ping half-opens the circuit:
+ * traffic resumes and the next bulk either closes the circuit or opens it again with the
+ * doubled interval. While the circuit is open the sink parks instead of taking events.
+ */
+public class ConnectionMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionMonitor.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final Callable<Boolean> probe;
+
+    private final long initialProbeMillis;
+
+    private final long maxProbeMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private State state = State.CLOSED;
+
+    private long probeMillis;
+
+    public ConnectionMonitor(String name, Callable<Boolean> probe, long initialProbeMillis, long maxProbeMillis) {
+        this.probe = probe;
+        this.initialProbeMillis = initialProbeMillis;
+        this.maxProbeMillis = maxProbeMillis;
+        this.probeMillis = initialProbeMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(name + "-connection-monitor")
+                .setDaemon(true)
+                .build());
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Opens the circuit after a failed bulk, unless a probe is already scheduled
+     */
+    public synchronized void onFailure() {
+        if (state == State.OPEN) {
+            return;
+        }
+        probeMillis = state == State.HALF_OPEN ? Math.min(maxProbeMillis, probeMillis * 2) : initialProbeMillis;
+        state = State.OPEN;
+        LOG.warn("Elasticsearch connection circuit opened, probing in {}ms", probeMillis);
+        schedule();
+    }
+
+    /**
+     * Closes a half-open circuit after a successful bulk
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            probeMillis = initialProbeMillis;
+            LOG.info("Elasticsearch connection circuit closed");
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits up to the timeout for the circuit to let requests through
+     *
+     * @return false if the circuit is still open
+     */
+    public synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (state == State.OPEN) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void schedule() {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::probe, probeMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void probe() {
+        boolean reachable;
+        try {
+            reachable = probe.call();
+        } catch (Exception e) {
+            LOG.error("ping request for elasticsearch failed " + e.getMessage(), e);
+            reachable = false;
+        }
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return;
+            }
+            if (reachable) {
+                state = State.HALF_OPEN;
+                LOG.info("Elasticsearch is reachable again, connection circuit half-opened");
+                notifyAll();
+            } else {
+                probeMillis = Math.min(maxProbeMillis, probeMillis * 2);
+                schedule();
+            }
+        }
+    }
+
+}
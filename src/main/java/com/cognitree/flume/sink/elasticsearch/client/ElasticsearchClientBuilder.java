@@ -15,19 +15,35 @@
  */
 package com.cognitree.flume.sink.elasticsearch.client;
 
+import com.cognitree.flume.sink.elasticsearch.Util;
+import org.apache.flume.Context;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.NodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 import org.elasticsearch.common.transport.TransportAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
-import static com.cognitree.flume.sink.elasticsearch.Constants.DEFAULT_ES_PORT;
+import static com.cognitree.flume.sink.elasticsearch.Constants.*;
 
 /**
  * This class creates  an instance of the {@link RestHighLevelClient}
@@ -37,29 +53,182 @@ public class ElasticsearchClientBuilder {
 
     private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchClientBuilder.class);
 
+    private static final String BULK_START = "flume.bulk.start";
+
     private String clusterName;
 
     private List<TransportAddress> transportAddresses;
 
+    private boolean compression;
+
+    private int maxConnections;
+
+    private int maxConnectionsPerRoute;
+
+    private Integer ioThreads;
+
+    private long connectTimeout;
+
+    private long socketTimeout;
+
+    private Long connectionRequestTimeout;
+
+    private Long keepAlive;
+
+    private boolean sniff;
+
+    private long sniffInterval;
+
+    private long sniffFailureDelay;
+
+    private boolean sniffDataNodes;
+
+    private LatencyAwareNodeSelector nodeSelector;
+
+    private Sniffer sniffer;
+
     public ElasticsearchClientBuilder(String clusterName, String[] hostnames) {
+        this(clusterName, hostnames, new Context());
+    }
+
+    public ElasticsearchClientBuilder(String clusterName, String[] hostnames, Context context) {
         this.clusterName = clusterName;
         setTransportAddresses(hostnames);
+        // the ndjson encoder compresses its own bodies with the configured level and threshold
+        this.compression = context.getBoolean(ES_COMPRESSION_ENABLED, false)
+                && !"ndjson".equalsIgnoreCase(context.getString(ES_BULK_ENCODER, DEFAULT_ES_BULK_ENCODER));
+        this.maxConnections = context.getInteger(ES_CLIENT_MAX_CONNECTIONS, DEFAULT_ES_CLIENT_MAX_CONNECTIONS);
+        this.maxConnectionsPerRoute = context.getInteger(ES_CLIENT_MAX_CONNECTIONS_PER_ROUTE,
+                DEFAULT_ES_CLIENT_MAX_CONNECTIONS_PER_ROUTE);
+        this.ioThreads = context.getInteger(ES_CLIENT_IO_THREADS);
+        this.connectTimeout = Util.getTimeValue(context.getString(ES_CLIENT_CONNECT_TIMEOUT),
+                DEFAULT_ES_CLIENT_CONNECT_TIMEOUT).millis();
+        this.socketTimeout = Util.getTimeValue(context.getString(ES_CLIENT_SOCKET_TIMEOUT),
+                DEFAULT_ES_CLIENT_SOCKET_TIMEOUT).millis();
+        String connectionRequestTimeout = context.getString(ES_CLIENT_CONNECTION_REQUEST_TIMEOUT);
+        if (connectionRequestTimeout != null) {
+            this.connectionRequestTimeout = Util.getTimeValue(connectionRequestTimeout, null).millis();
+        }
+        String keepAlive = context.getString(ES_CLIENT_KEEP_ALIVE);
+        if (keepAlive != null) {
+            this.keepAlive = Util.getTimeValue(keepAlive, null).millis();
+        }
+        this.sniff = context.getBoolean(ES_CLIENT_SNIFF, false);
+        this.sniffInterval = Util.getTimeValue(context.getString(ES_CLIENT_SNIFF_INTERVAL),
+                DEFAULT_ES_CLIENT_SNIFF_INTERVAL).millis();
+        this.sniffFailureDelay = Util.getTimeValue(context.getString(ES_CLIENT_SNIFF_FAILURE_DELAY),
+                DEFAULT_ES_CLIENT_SNIFF_FAILURE_DELAY).millis();
+        this.sniffDataNodes = "data".equalsIgnoreCase(context.getString(ES_CLIENT_SNIFF_FILTER,
+                DEFAULT_ES_CLIENT_SNIFF_FILTER));
+        if ("latency".equalsIgnoreCase(context.getString(ES_CLIENT_NODE_SELECTOR, DEFAULT_ES_CLIENT_NODE_SELECTOR))) {
+            // one request in twenty ignores latencies so that slow nodes are measured again
+            this.nodeSelector = new LatencyAwareNodeSelector(Util.getTimeValue(
+                    context.getString(ES_CLIENT_NODE_COOLDOWN), DEFAULT_ES_CLIENT_NODE_COOLDOWN).millis(), 0.05);
+        }
     }
 
     public RestHighLevelClient build() {
         RestHighLevelClient client;
         HttpHost[] hosts = new HttpHost[transportAddresses.size()];
         int i = 0;
-        LOG.trace("Cluster Name: [{}], HostName: [{}] ",
-                clusterName, transportAddresses);
+        LOG.trace("Cluster Name: [{}], HostName: [{}], max connections: [{}], max connections per route: [{}], " +
+                        "io threads: [{}], connect timeout: [{}], socket timeout: [{}], keep alive: [{}]",
+                clusterName, transportAddresses, maxConnections, maxConnectionsPerRoute,
+                ioThreads, connectTimeout, socketTimeout, keepAlive);
         for (TransportAddress transportAddress : transportAddresses) {
             hosts[i++] = new HttpHost(transportAddress.address().getAddress(),
                     transportAddress.address().getPort(), "http");
         }
-        client = new RestHighLevelClient(RestClient.builder(hosts));
+        SniffOnFailureListener sniffOnFailure = sniff ? new SniffOnFailureListener() : null;
+        RestClientBuilder restClientBuilder = RestClient.builder(hosts)
+                .setCompressionEnabled(compression)
+                .setFailureListener(new RestClient.FailureListener() {
+                    @Override
+                    public void onFailure(Node node) {
+                        if (nodeSelector != null) {
+                            nodeSelector.onFailure(node.getHost());
+                        }
+                        if (sniffOnFailure != null) {
+                            sniffOnFailure.onFailure(node);
+                        }
+                    }
+                })
+                .setRequestConfigCallback(requestConfig -> {
+                    requestConfig.setConnectTimeout((int) connectTimeout)
+                            .setSocketTimeout((int) socketTimeout);
+                    if (connectionRequestTimeout != null) {
+                        requestConfig.setConnectionRequestTimeout(connectionRequestTimeout.intValue());
+                    }
+                    return requestConfig;
+                })
+                .setHttpClientConfigCallback(httpClient -> {
+                    httpClient.setMaxConnTotal(maxConnections)
+                            .setMaxConnPerRoute(maxConnectionsPerRoute);
+                    if (ioThreads != null) {
+                        httpClient.setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                .setIoThreadCount(ioThreads)
+                                .build());
+                    }
+                    if (keepAlive != null) {
+                        // never keep a connection longer than the server or the configured limit allow
+                        httpClient.setKeepAliveStrategy((response, context) -> {
+                            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                    .getKeepAliveDuration(response, context);
+                            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAlive) : keepAlive;
+                        });
+                    }
+                    if (nodeSelector != null) {
+                        httpClient.addInterceptorLast((HttpRequest request, HttpContext context) ->
+                                context.setAttribute(BULK_START, isBulk(request) ? System.nanoTime() : null));
+                        httpClient.addInterceptorLast((HttpResponse response, HttpContext context) -> {
+                            Object start = context.getAttribute(BULK_START);
+                            HttpHost host = HttpCoreContext.adapt(context).getTargetHost();
+                            if (start != null && host != null) {
+                                nodeSelector.onLatency(host, System.nanoTime() - (Long) start);
+                            }
+                        });
+                    }
+                    return httpClient;
+                });
+        if (nodeSelector != null) {
+            restClientBuilder.setNodeSelector(nodeSelector);
+        }
+        client = new RestHighLevelClient(restClientBuilder);
+        if (sniff) {
+            NodesSniffer nodesSniffer = new ElasticsearchNodesSniffer(client.getLowLevelClient());
+            sniffer = Sniffer.builder(client.getLowLevelClient())
+                    .setSniffIntervalMillis((int) sniffInterval)
+                    .setSniffAfterFailureDelayMillis((int) sniffFailureDelay)
+                    .setNodesSniffer(sniffDataNodes ? () -> dataNodes(nodesSniffer) : nodesSniffer)
+                    .build();
+            sniffOnFailure.setSniffer(sniffer);
+        }
         return client;
     }
 
+    /**
+     * Stops the node discovery, to be called before closing the client
+     */
+    public void close() {
+        if (sniffer != null) {
+            sniffer.close();
+            sniffer = null;
+        }
+    }
+
+    private static boolean isBulk(HttpRequest request) {
+        return request.getRequestLine().getUri().contains("_bulk");
+    }
+
+    private static List<Node> dataNodes(NodesSniffer nodesSniffer) throws IOException {
+        List<Node> nodes = nodesSniffer.sniff();
+        List<Node> dataNodes = nodes.stream()
+                .filter(node -> node.getRoles() == null || node.getRoles().canContainData())
+                .collect(Collectors.toList());
+        // keep the previous nodes rather than none if the cluster has no data node
+        return dataNodes.isEmpty() ? nodes : dataNodes;
+    }
+
     private void setTransportAddresses(String[] transportAddresses) {
         try {
             this.transportAddresses = new ArrayList<>(transportAddresses.length);
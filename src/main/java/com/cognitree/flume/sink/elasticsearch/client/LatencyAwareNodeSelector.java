@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests to the nodes answering bulks the fastest.
+ * <p>
+ * Keeps an exponentially weighted moving average of the bulk latency of each node and
+ * skips the nodes slower than twice the fastest one, as well as the nodes that failed
+ * within the cooldown. Nodes without samples are always kept so that they get measured,
+ * and a small share of the requests ignores latencies so that slow nodes are measured again.
+ */
+public class LatencyAwareNodeSelector implements NodeSelector {
+
+    private static final double ALPHA = 0.3;
+
+    private static final double SLACK = 2.0;
+
+    private final Map<HttpHost, Stats> stats = new ConcurrentHashMap<>();
+
+    private final long cooldownNanos;
+
+    private final double exploreRate;
+
+    public LatencyAwareNodeSelector(long cooldownMillis, double exploreRate) {
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        this.exploreRate = exploreRate;
+    }
+
+    public void onLatency(HttpHost host, long nanos) {
+        Stats nodeStats = stats.computeIfAbsent(host, h -> new Stats());
+        synchronized (nodeStats) {
+            nodeStats.ewma = nodeStats.ewma < 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * nodeStats.ewma;
+        }
+    }
+
+    public void onFailure(HttpHost host) {
+        stats.computeIfAbsent(host, h -> new Stats()).failedAt = System.nanoTime();
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        long now = System.nanoTime();
+        boolean explore = exploreRate > 0 && ThreadLocalRandom.current().nextDouble() < exploreRate;
+        double fastest = Double.MAX_VALUE;
+        boolean healthy = false;
+        for (Node node : nodes) {
+            Stats nodeStats = stats.get(node.getHost());
+            if (nodeStats == null || !nodeStats.coolingDown(now)) {
+                healthy = true;
+                if (nodeStats != null && nodeStats.ewma >= 0) {
+                    fastest = Math.min(fastest, nodeStats.ewma);
+                }
+            }
+        }
+        if (!healthy) {
+            // every node failed recently, let the client pick among all of them
+            return;
+        }
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            Stats nodeStats = stats.get(iterator.next().getHost());
+            if (nodeStats == null) {
+                continue;
+            }
+            if (nodeStats.coolingDown(now) || (!explore && nodeStats.ewma > fastest * SLACK)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LATENCY_AWARE";
+    }
+
+    private final class Stats {
+
+        private volatile double ewma = -1;
+
+        private volatile long failedAt;
+
+        private boolean coolingDown(long now) {
+            return failedAt != 0 && now - failedAt < cooldownNanos;
+        }
+    }
+
+}
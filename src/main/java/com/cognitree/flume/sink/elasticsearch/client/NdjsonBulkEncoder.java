@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.xcontent.DeprecationHandler;
+import org.elasticsearch.xcontent.NamedXContentRegistry;
+import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends bulk requests through the low-level {@link RestClient}, writing the _bulk body directly.
+ * <p>
+ * The high-level client re-encodes every action into a new buffer. Here the action line prefix of
+ * each index is encoded once and the JSON sources are copied as-is into a pooled buffer, which is
+ * handed back to the pool once elasticsearch has answered. Bodies are gzipped into a second pooled
+ * buffer when a {@link BulkCompressor} is given. Requests with other actions or content
+ * types fall back to the given client bulk path.
+ */
+public class NdjsonBulkEncoder {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+    private static final byte[] ID = bytes(",\"_id\":\"");
+
+    private static final byte[] ROUTING = bytes(",\"routing\":\"");
+
+    private static final byte[] ACTION_END = bytes("}}\n");
+
+    private static final byte[] QUOTE = bytes("\"");
+
+    private static final int MAX_CACHED_INDICES = 1024;
+
+    // larger buffers are left to the garbage collector instead of being pooled
+    private static final int MAX_POOLED_BUFFER = 16 * 1024 * 1024;
+
+    private final RestClient client;
+
+    private final BulkCompressor compressor;
+
+    private final Map<String, byte[]> actionPrefixes = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<Buffer> pool;
+
+    public NdjsonBulkEncoder(RestClient client, BulkCompressor compressor, int poolSize) {
+        this.client = client;
+        this.compressor = compressor;
+        // compressed bodies take a second buffer
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, compressor == null ? poolSize : poolSize * 2));
+    }
+
+    /**
+     * Returns true if every item of the request can be encoded directly
+     */
+    static boolean canEncode(BulkRequest request) {
+        for (DocWriteRequest<?> itemRequest : request.requests()) {
+            if (!(itemRequest instanceof IndexRequest)) {
+                return false;
+            }
+            IndexRequest indexRequest = (IndexRequest) itemRequest;
+            if (indexRequest.getContentType() != XContentType.JSON
+                    || indexRequest.getPipeline() != null || indexRequest.opType() != DocWriteRequest.OpType.INDEX) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void bulkAsync(BulkRequest bulkRequest, ActionListener<BulkResponse> listener) {
+        Buffer buffer = acquire();
+        Request request = new Request("POST", "/_bulk");
+        request.addParameter("timeout", bulkRequest.timeout().getStringRep());
+        if (bulkRequest.getRefreshPolicy() != WriteRequest.RefreshPolicy.NONE) {
+            request.addParameter("refresh", bulkRequest.getRefreshPolicy().getValue());
+        }
+        try {
+            encode(bulkRequest, buffer);
+        } catch (IOException e) {
+            release(buffer);
+            listener.onFailure(e);
+            return;
+        }
+        Buffer compressed = compressor == null ? null : acquire();
+        if (compressed != null && compressor.compress(buffer.array(), 0, buffer.size(), compressed)) {
+            NByteArrayEntity entity = new NByteArrayEntity(compressed.array(), 0, compressed.size(), NDJSON);
+            entity.setContentEncoding("gzip");
+            request.setEntity(entity);
+        } else {
+            request.setEntity(new NByteArrayEntity(buffer.array(), 0, buffer.size(), NDJSON));
+        }
+        final Buffer body = buffer;
+        client.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                release(body);
+                release(compressed);
+                BulkResponse bulkResponse;
+                try {
+                    bulkResponse = parse(response);
+                } catch (Exception e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                release(body);
+                release(compressed);
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Writes the action line and the source of each item, one per line
+     */
+    void encode(BulkRequest bulkRequest, ByteArrayOutputStream out) throws IOException {
+        out.reset();
+        for (DocWriteRequest<?> itemRequest : bulkRequest.requests()) {
+            IndexRequest indexRequest = (IndexRequest) itemRequest;
+            out.write(actionPrefix(indexRequest.index()));
+            if (indexRequest.id() != null) {
+                out.write(ID);
+                writeEscaped(indexRequest.id(), out);
+                out.write(QUOTE);
+            }
+            if (indexRequest.routing() != null) {
+                out.write(ROUTING);
+                writeEscaped(indexRequest.routing(), out);
+                out.write(QUOTE);
+            }
+            out.write(ACTION_END);
+            BytesRefIterator iterator = indexRequest.source().iterator();
+            BytesRef ref;
+            while ((ref = iterator.next()) != null) {
+                out.write(ref.bytes, ref.offset, ref.length);
+            }
+            out.write('\n');
+        }
+    }
+
+    private byte[] actionPrefix(String index) throws IOException {
+        byte[] prefix = actionPrefixes.get(index);
+        if (prefix == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(bytes("{\"index\":{\"_index\":\""));
+            writeEscaped(index, out);
+            out.write(QUOTE);
+            prefix = out.toByteArray();
+            if (actionPrefixes.size() >= MAX_CACHED_INDICES) {
+                actionPrefixes.clear();
+            }
+            actionPrefixes.put(index, prefix);
+        }
+        return prefix;
+    }
+
+    private Buffer acquire() {
+        Buffer buffer = pool.poll();
+        return buffer == null ? new Buffer() : buffer;
+    }
+
+    private void release(Buffer buffer) {
+        if (buffer != null && buffer.array().length <= MAX_POOLED_BUFFER) {
+            pool.offer(buffer);
+        }
+    }
+
+    private static BulkResponse parse(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent();
+             XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                     DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+
+    private static void writeEscaped(String value, ByteArrayOutputStream out) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(bytes(String.format("\\u%04x", (int) c)));
+            } else if (c < 0x80) {
+                out.write(c);
+            } else {
+                int codePoint = value.codePointAt(i);
+                out.write(new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8));
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Growable buffer exposing its backing array to avoid a copy per request
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.xcontent.DeprecationHandler;
+import org.elasticsearch.xcontent.NamedXContentRegistry;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
+import static org.junit.Assert.*;
+
+public class TestAvroJsonWriter {
+
+    private static final String SCHEMA = "{\"type\":\"record\",\"name\":\"Order\",\"fields\":["
+            + "{\"name\":\"id\",\"type\":\"long\"},"
+            + "{\"name\":\"created\",\"type\":{\"type\":\"long\",\"logicalType\":\"timestamp-millis\"}},"
+            + "{\"name\":\"shipped\",\"type\":{\"type\":\"long\",\"logicalType\":\"timestamp-micros\"}},"
+            + "{\"name\":\"day\",\"type\":{\"type\":\"int\",\"logicalType\":\"date\"}},"
+            + "{\"name\":\"amount\",\"type\":{\"type\":\"bytes\",\"logicalType\":\"decimal\",\"precision\":9,\"scale\":2}},"
+            + "{\"name\":\"status\",\"type\":{\"type\":\"enum\",\"name\":\"Status\",\"symbols\":[\"NEW\",\"PAID\"]}},"
+            + "{\"name\":\"note\",\"type\":[\"null\",\"string\"]},"
+            + "{\"name\":\"tags\",\"type\":{\"type\":\"array\",\"items\":\"string\"}},"
+            + "{\"name\":\"attributes\",\"type\":{\"type\":\"map\",\"values\":\"int\"}},"
+            + "{\"name\":\"flags\",\"type\":\"boolean\"},"
+            + "{\"name\":\"ratio\",\"type\":\"double\"},"
+            + "{\"name\":\"parent\",\"type\":[\"null\",\"Order\"]}]}";
+
+    /**
+     * tests every avro type and the logical types, including a recursive record
+     */
+    @Test
+    public void testWrite() throws IOException {
+        Schema schema = new Schema.Parser().parse(SCHEMA);
+        GenericRecord parent = order(schema, 1, null, null);
+        GenericRecord child = order(schema, 2, "gift \"wrap\" é", parent);
+
+        AvroJsonWriter writer = new AvroJsonWriter(schema);
+        XContentBuilder builder = jsonBuilder();
+        writer.write(DecoderFactory.get().binaryDecoder(encode(schema, child), null), builder,
+                new AvroJsonWriter.Scratch());
+        assertEquals("{\"id\":2,\"created\":\"2017-07-14T02:40:00.123Z\",\"shipped\":\"2017-07-14T02:40:00.123456Z\","
+                + "\"day\":\"2017-07-14\",\"amount\":12345.67,\"status\":\"PAID\",\"note\":\"gift \\\"wrap\\\" é\","
+                + "\"tags\":[\"a\",\"b\"],\"attributes\":{\"k\":7},\"flags\":true,\"ratio\":0.5,"
+                + "\"parent\":{\"id\":1,\"created\":\"2017-07-14T02:40:00.123Z\","
+                + "\"shipped\":\"2017-07-14T02:40:00.123456Z\",\"day\":\"2017-07-14\",\"amount\":12345.67,"
+                + "\"status\":\"PAID\",\"note\":null,\"tags\":[\"a\",\"b\"],\"attributes\":{\"k\":7},"
+                + "\"flags\":true,\"ratio\":0.5,\"parent\":null}}", Strings.toString(builder));
+    }
+
+    /**
+     * tests that bytes and fixed values keep the shapes of the avro rendering of records
+     */
+    @Test
+    public void testBytesAndFixed() throws IOException {
+        Schema schema = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"Blob\",\"fields\":["
+                + "{\"name\":\"data\",\"type\":\"bytes\"},"
+                + "{\"name\":\"hash\",\"type\":{\"type\":\"fixed\",\"name\":\"Hash\",\"size\":3}}]}");
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("data", ByteBuffer.wrap(new byte[]{'A', 'B', (byte) 0xE9}));
+        record.put("hash", new GenericData.Fixed(schema.getField("hash").schema(), new byte[]{'C', 'D', (byte) 0xFF}));
+
+        XContentBuilder builder = jsonBuilder();
+        new AvroJsonWriter(schema).write(DecoderFactory.get().binaryDecoder(encode(schema, record), null), builder,
+                new AvroJsonWriter.Scratch());
+        assertEquals("{\"data\":{\"bytes\":\"ABé\"},\"hash\":[67,68,-1]}", Strings.toString(builder));
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, record.toString())) {
+            assertEquals("the rendering of GenericRecord#toString", Strings.toString(jsonBuilder().copyCurrentStructure(parser)),
+                    Strings.toString(builder));
+        }
+    }
+
+    /**
+     * tests that only record schemas are accepted
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotRecord() {
+        new AvroJsonWriter(Schema.create(Schema.Type.STRING));
+    }
+
+    private static GenericRecord order(Schema schema, long id, String note, GenericRecord parent) {
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("id", id);
+        record.put("created", 1500000000123L);
+        record.put("shipped", 1500000000123456L);
+        record.put("day", 17361);
+        record.put("amount", ByteBuffer.wrap(BigInteger.valueOf(1234567).toByteArray()));
+        record.put("status", new GenericData.EnumSymbol(schema.getField("status").schema(), "PAID"));
+        record.put("note", note);
+        record.put("tags", Arrays.asList("a", "b"));
+        record.put("attributes", Collections.singletonMap("k", 7));
+        record.put("flags", true);
+        record.put("ratio", 0.5);
+        record.put("parent", parent);
+        return record;
+    }
+
+    private static byte[] encode(Schema schema, GenericRecord record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.Context;
+import org.apache.flume.event.EventBuilder;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestAvroSchemas {
+
+    private static final String USER = "{\"type\":\"record\",\"name\":\"User\",\"namespace\":\"test\","
+            + "\"fields\":[{\"name\":\"name\",\"type\":\"string\"}]}";
+
+    private static final String ORDER = "{\"type\":\"record\",\"name\":\"Order\",\"namespace\":\"test\","
+            + "\"fields\":[{\"name\":\"id\",\"type\":\"long\"},{\"name\":\"total\",\"type\":\"double\"}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * tests the resolution of the schema from the single object encoding, the header and the default schema
+     */
+    @Test
+    public void testResolve() throws IOException {
+        File dir = folder.newFolder("schemas");
+        write(new File(dir, "user.avsc"), USER);
+        write(new File(dir, "ignored.txt"), "not a schema");
+        File order = folder.newFile("order.avsc");
+        write(order, ORDER);
+        Schema user = new Schema.Parser().parse(USER);
+        Schema orderSchema = new Schema.Parser().parse(ORDER);
+
+        AvroSerializer serializer = new AvroSerializer();
+        Context context = new Context();
+        context.put("avro.schema.dir", dir.getAbsolutePath());
+        context.put("avro.schema.file", order.getAbsolutePath());
+        serializer.configure(context);
+
+        GenericRecord userRecord = new GenericData.Record(user);
+        userRecord.put("name", "jane");
+        GenericRecord orderRecord = new GenericData.Record(orderSchema);
+        orderRecord.put("id", 7L);
+        orderRecord.put("total", 9.5);
+
+        byte[] singleObject = singleObject(user, userRecord);
+        assertEquals("{\"name\":\"jane\"}", serialize(serializer, singleObject, null));
+        String fingerprint = Long.toHexString(AvroSchemas.fingerprint(user));
+        assertEquals("{\"name\":\"jane\"}", serialize(serializer, encode(user, userRecord), fingerprint));
+        assertEquals("{\"name\":\"jane\"}", serialize(serializer, encode(user, userRecord), "test.User"));
+        assertEquals("{\"id\":7,\"total\":9.5}", serialize(serializer, encode(orderSchema, orderRecord), null));
+        assertNull(serializer.serialize(EventBuilder.withBody(encode(user, userRecord),
+                Collections.singletonMap("flume.avro.schema.fingerprint", "test.Unknown"))));
+        // the header must not be decoded as data with the schema named by the event header
+        singleObject[2] ^= 1;
+        assertNull(serializer.serialize(EventBuilder.withBody(singleObject,
+                Collections.singletonMap("flume.avro.schema.fingerprint", "test.User"))));
+    }
+
+    /**
+     * tests that the compiled writers are cached up to the cache size
+     */
+    @Test
+    public void testCache() {
+        AvroSchemas schemas = new AvroSchemas(null, 1);
+        long user = schemas.add(new Schema.Parser().parse(USER));
+        long order = schemas.add(new Schema.Parser().parse(ORDER));
+        AvroJsonWriter userWriter = schemas.writer(user);
+        assertSame(userWriter, schemas.writer(user));
+        assertEquals("test.Order", schemas.writer(order).getSchema().getFullName());
+        assertNotSame("the user writer should have been evicted", userWriter, schemas.writer(user));
+        assertNull(schemas.writer(42L));
+
+        AvroJsonWriter embedded = schemas.writerOf(USER.replace("User", "Embedded"));
+        assertSame(embedded, schemas.writerOf(USER.replace("User", "Embedded")));
+        assertEquals("container schemas are not registered", 2, schemas.size());
+        assertNull(schemas.writer("test.Embedded"));
+    }
+
+    /**
+     * tests that every record of concatenated datums and of container files becomes a document
+     */
+    @Test
+    public void testMultiRecord() throws IOException {
+        File order = folder.newFile("order.avsc");
+        write(order, ORDER);
+        Schema orderSchema = new Schema.Parser().parse(ORDER);
+        AvroSerializer serializer = new AvroSerializer();
+        Context context = new Context();
+        context.put("avro.schema.file", order.getAbsolutePath());
+        context.put("avro.records", "multi");
+        serializer.configure(context);
+
+        ByteArrayOutputStream datums = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            datums.write(encode(orderSchema, order(orderSchema, i)));
+        }
+        assertEquals(Arrays.asList("{\"id\":0,\"total\":0.5}", "{\"id\":1,\"total\":1.5}", "{\"id\":2,\"total\":2.5}"),
+                sources(serializer, datums.toByteArray()));
+
+        // a user container, whose schema is unknown to the serializer, with several blocks
+        Schema user = new Schema.Parser().parse(USER);
+        for (CodecFactory codec : new CodecFactory[]{CodecFactory.nullCodec(), CodecFactory.deflateCodec(6)}) {
+            ByteArrayOutputStream container = new ByteArrayOutputStream();
+            try (DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(user))) {
+                writer.setCodec(codec);
+                writer.create(user, container);
+                for (int i = 0; i < 5; i++) {
+                    GenericRecord record = new GenericData.Record(user);
+                    record.put("name", "user" + i);
+                    writer.append(record);
+                    if (i == 2) {
+                        writer.sync();
+                    }
+                }
+            }
+            List<String> sources = sources(serializer, container.toByteArray());
+            assertEquals(5, sources.size());
+            assertEquals("{\"name\":\"user4\"}", sources.get(4));
+        }
+
+        // single object headers before some of the records
+        ByteArrayOutputStream singleObjects = new ByteArrayOutputStream();
+        singleObjects.write(singleObject(orderSchema, order(orderSchema, 0)));
+        singleObjects.write(encode(orderSchema, order(orderSchema, 1)));
+        singleObjects.write(singleObject(orderSchema, order(orderSchema, 2)));
+        assertEquals(Arrays.asList("{\"id\":0,\"total\":0.5}", "{\"id\":1,\"total\":1.5}", "{\"id\":2,\"total\":2.5}"),
+                sources(serializer, singleObjects.toByteArray()));
+        GenericRecord userRecord = new GenericData.Record(user);
+        userRecord.put("name", "jane");
+        singleObjects.write(singleObject(user, userRecord));
+        assertEquals("records after an unknown schema are not decoded", 3,
+                sources(serializer, singleObjects.toByteArray()).size());
+
+        byte[] truncated = Arrays.copyOf(datums.toByteArray(), datums.size() - 3);
+        assertEquals("records before a malformed one are kept", 2, sources(serializer, truncated).size());
+    }
+
+    private static GenericRecord order(Schema schema, long id) {
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("id", id);
+        record.put("total", id + 0.5);
+        return record;
+    }
+
+    private static List<String> sources(AvroSerializer serializer, byte[] body) {
+        List<String> sources = new ArrayList<>();
+        for (BytesReference source : serializer.toSources(EventBuilder.withBody(body))) {
+            sources.add(source.utf8ToString());
+        }
+        return sources;
+    }
+
+    private static String serialize(AvroSerializer serializer, byte[] body, String schemaId) {
+        XContentBuilder builder = serializer.serialize(EventBuilder.withBody(body, schemaId == null
+                ? Collections.emptyMap() : Collections.singletonMap("flume.avro.schema.fingerprint", schemaId)));
+        assertNotNull(builder);
+        return Strings.toString(builder);
+    }
+
+    private static byte[] singleObject(Schema schema, GenericRecord record) throws IOException {
+        byte[] datum = encode(schema, record);
+        byte[] body = new byte[AvroSchemas.SINGLE_OBJECT_HEADER + datum.length];
+        body[0] = (byte) 0xC3;
+        body[1] = 0x01;
+        long fingerprint = AvroSchemas.fingerprint(schema);
+        for (int i = 0; i < 8; i++) {
+            body[2 + i] = (byte) (fingerprint >>> (8 * i));
+        }
+        System.arraycopy(datum, 0, body, AvroSchemas.SINGLE_OBJECT_HEADER, datum.length);
+        return body;
+    }
+
+    private static byte[] encode(Schema schema, GenericRecord record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.elasticsearch.ElasticsearchException;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestBulkMetrics {
+
+    /**
+     * tests the distributions, the in-flight gauge and the failures by type
+     */
+    @Test
+    public void testRecord() {
+        BulkMetrics bulkMetrics = new BulkMetrics("test");
+        for (int i = 1; i <= 100; i++) {
+            bulkMetrics.onBulkStart();
+            bulkMetrics.onBulk(TimeUnit.MILLISECONDS.toNanos(i), i * 10, i * 1000L, i == 100 ? 2 : 0);
+        }
+        bulkMetrics.onBulkStart();
+        bulkMetrics.onBulkStart();
+        bulkMetrics.onBulkFailure(TimeUnit.MILLISECONDS.toNanos(5), 10, 1000);
+        bulkMetrics.onItemFailure(new ElasticsearchException(
+                "Elasticsearch exception [type=es_rejected_execution_exception, reason=rejected execution]"));
+        bulkMetrics.onItemFailure(new ElasticsearchException(
+                "Elasticsearch exception [type=es_rejected_execution_exception, reason=rejected execution]"));
+        bulkMetrics.onItemFailure(new ElasticsearchException(
+                "Elasticsearch exception [type=mapper_parsing_exception, reason=failed to parse]"));
+
+        BulkMetricsMXBean.Snapshot latency = bulkMetrics.getBulkLatencyMillis();
+        assertEquals(101, latency.getCount());
+        assertEquals(50, latency.getP50(), 1);
+        assertEquals(99, latency.getP99(), 1);
+        assertEquals(100, latency.getMax(), 1);
+        assertEquals(5055, latency.getSum(), 1);
+        assertEquals(1000, bulkMetrics.getBulkActions().getMax(), 10);
+        assertEquals(2, bulkMetrics.getBulkFailedItems().getMax(), 0);
+        assertEquals(100, bulkMetrics.getBulkFailedItems().getCount());
+        assertEquals(1, bulkMetrics.getBulksInFlight());
+        assertEquals(1, bulkMetrics.getBulkFailures());
+        assertEquals(Long.valueOf(2), bulkMetrics.getItemFailures().get("es_rejected_execution_exception"));
+        assertEquals(Long.valueOf(1), bulkMetrics.getItemFailures().get("mapper_parsing_exception"));
+
+        bulkMetrics.reset();
+        assertEquals(0, bulkMetrics.getBulkLatencyMillis().getCount());
+        assertTrue(bulkMetrics.getItemFailures().isEmpty());
+        assertEquals("in-flight bulks survive a reset", 1, bulkMetrics.getBulksInFlight());
+    }
+
+    /**
+     * tests that the error type falls back to the exception class without a parsed type
+     */
+    @Test
+    public void testErrorType() {
+        assertEquals("version_conflict_engine_exception", BulkMetrics.errorType(new ElasticsearchException(
+                "Elasticsearch exception [type=version_conflict_engine_exception, reason=[1]: version conflict]")));
+        assertEquals("IllegalStateException", BulkMetrics.errorType(new IllegalStateException("boom")));
+        assertEquals("other", BulkMetrics.errorType(null));
+    }
+
+    /**
+     * tests the registration of the metrics as an MXBean
+     */
+    @Test
+    public void testMXBean() throws Exception {
+        BulkMetrics bulkMetrics = new BulkMetrics("jmx-test");
+        bulkMetrics.onBulkStart();
+        bulkMetrics.onBulk(TimeUnit.MILLISECONDS.toNanos(20), 100, 10000, 0);
+        bulkMetrics.start();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(
+                    "com.cognitree.flume.sink.elasticsearch:type=BulkMetrics,name=\"jmx-test\"");
+            CompositeData latency = (CompositeData) server.getAttribute(name, "BulkLatencyMillis");
+            assertEquals(1L, latency.get("count"));
+            assertEquals(20, (Double) latency.get("p50"), 0.1);
+        } finally {
+            bulkMetrics.stop();
+        }
+    }
+
+    /**
+     * tests the prometheus text format served on /metrics
+     */
+    @Test
+    public void testPrometheus() throws IOException {
+        BulkMetrics bulkMetrics = new BulkMetrics("es\"sink");
+        bulkMetrics.onBulkStart();
+        bulkMetrics.onBulk(TimeUnit.MILLISECONDS.toNanos(250), 100, 10000, 1);
+        bulkMetrics.onItemFailure(new ElasticsearchException(
+                "Elasticsearch exception [type=es_rejected_execution_exception, reason=rejected execution]"));
+        PrometheusEndpoint endpoint = new PrometheusEndpoint(bulkMetrics, 0);
+        endpoint.start();
+        try {
+            String body;
+            try (InputStream in = new URL("http://127.0.0.1:" + endpoint.getPort() + "/metrics").openStream()) {
+                body = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next();
+            }
+            assertTrue(body.contains("# TYPE flume_es_bulk_latency_seconds summary\n"));
+            assertTrue(body.contains("flume_es_bulk_latency_seconds{sink=\"es\\\"sink\",quantile=\"0.5\"} 0.25"));
+            assertTrue(body.contains("flume_es_bulk_actions_count{sink=\"es\\\"sink\"} 1\n"));
+            assertTrue(body.contains("flume_es_bulks_in_flight{sink=\"es\\\"sink\"} 0\n"));
+            assertTrue(body.contains("flume_es_bulk_item_failures_total{sink=\"es\\\"sink\","
+                    + "type=\"es_rejected_execution_exception\"} 1\n"));
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestContentHashId {
+
+    private static Event event(String body, String... headers) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i], headers[i + 1]);
+        }
+        return EventBuilder.withBody(body.getBytes(StandardCharsets.UTF_8), map);
+    }
+
+    /**
+     * tests that ids are stable, compact and depend on every configured field only
+     */
+    @Test
+    public void testHash() {
+        ContentHashId hashId = ContentHashId.parse("tenant, request, @body");
+        String id = hashId.of(event("{\"a\":1}", "tenant", "acme", "request", "7", "other", "x"));
+        assertEquals(22, id.length());
+        assertTrue(id, id.matches("[A-Za-z0-9_-]+"));
+        assertEquals("the id must not change across releases", "0mjRLidrHhDaVryrf_-wPw", id);
+        assertEquals(id, hashId.of(event("{\"a\":1}", "tenant", "acme", "request", "7", "other", "y")));
+        assertFalse(id.equals(hashId.of(event("{\"a\":2}", "tenant", "acme", "request", "7"))));
+        assertFalse(id.equals(hashId.of(event("{\"a\":1}", "tenant", "acme"))));
+        assertFalse("values moving between fields must not collide", hashId.of(event("", "tenant", "ab", "request", "c"))
+                .equals(hashId.of(event("", "tenant", "a", "request", "bc"))));
+        assertFalse(hashId.of(event("", "tenant", "")).equals(hashId.of(event("", "request", ""))));
+
+        assertFalse(ContentHashId.parse("@body").of(event("x")).equals(ContentHashId.parse("tenant").of(event("x"))));
+        assertNull(ContentHashId.parse(" "));
+    }
+
+    /**
+     * tests the hash ids of the static indexer and the hash fallback of the header indexer
+     */
+    @Test
+    public void testIndexers() {
+        Context context = new Context();
+        context.put("id.hash", "@body");
+        StaticIndexer staticIndexer = new StaticIndexer();
+        staticIndexer.configure(context);
+        String id = staticIndexer.getId(event("body"));
+        assertEquals(ContentHashId.parse("@body").of(event("body")), id);
+
+        context.put("id.header", "uuid");
+        HeaderIndexer headerIndexer = new HeaderIndexer();
+        headerIndexer.configure(context);
+        assertEquals("u1", headerIndexer.getId(event("body", "uuid", "u1")));
+        assertEquals(id, headerIndexer.getId(event("body")));
+        assertNull(new StaticIndexer().getId(event("body")));
+    }
+
+}
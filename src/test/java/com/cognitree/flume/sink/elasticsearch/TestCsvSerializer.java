@@ -1,71 +1,179 @@
-///*
-// * Copyright 2017 Cognitree Technologies
-// *
-// * Licensed under the Apache License, Version 2.0 (the "License");
-// * you may not use this file except in compliance with the License.
-// * You may obtain a copy of the License at
-// *
-// * http://www.apache.org/licenses/LICENSE-2.0
-// *
-// * Unless required by applicable law or agreed to in writing, software
-// * distributed under the License is distributed on an "AS IS" BASIS,
-// * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
-// * or implied. See the License for the specific language governing
-// * permissions and limitations under the License.
-// */
-//package com.cognitree.flume.sink.elasticsearch;
-//
-//import com.google.gson.JsonParser;
-//import org.apache.flume.Context;
-//import org.apache.flume.Event;
-//import org.apache.flume.event.EventBuilder;
-//import org.elasticsearch.common.Strings;
-//import org.elasticsearch.xcontent.XContentBuilder;
-//import org.junit.Before;
-//import org.junit.Test;
-//
-//import java.io.IOException;
-//import java.nio.charset.Charset;
-//
-//import static com.cognitree.flume.sink.elasticsearch.Constants.ES_CSV_FIELDS;
-//import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
-//import static org.junit.Assert.assertEquals;
-//
-//public class TestCsvSerializer {
-//
-//    private CsvSerializer csvSerializer;
-//
-//    private static final Charset charset = Charset.defaultCharset();
-//
-//    @Before
-//    public void init() {
-//        csvSerializer = new CsvSerializer();
-//    }
-//
-//    /**
-//     * tests csv serializer
-//     */
-//    @Test
-//    public void testSerializer() throws Exception {
-//        Context context = new Context();
-//        String type = "id:int,name:string,currentEmployee:boolean,leaves:float";
-//        context.put(ES_CSV_FIELDS, type);
-//        csvSerializer.configure(context);
-//        String message = "1,test,true,11.5";
-//        Event event = EventBuilder.withBody(message.getBytes(charset));
-//        XContentBuilder expected = generateContentBuilder();
-//        XContentBuilder actual = csvSerializer.serialize(event);
-//        JsonParser parser = new JsonParser();
-//        assertEquals(parser.parse(Strings.toString(expected)), parser.parse(Strings.toString(actual)));
-//    }
-//
-//    private XContentBuilder generateContentBuilder() throws IOException {
-//        XContentBuilder expected = jsonBuilder().startObject();
-//        expected.field("id", 1);
-//        expected.field("name", "test");
-//        expected.field("currentEmployee", true);
-//        expected.field("leaves", 11.5);
-//        expected.endObject();
-//        return expected;
-//    }
-//}
+/*
+ * Copyright 2017 Cognitree Technologies
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.event.EventBuilder;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
+import static org.junit.Assert.*;
+
+public class TestCsvSerializer {
+
+    private CsvSerializer csvSerializer;
+
+    @Before
+    public void init() {
+        csvSerializer = new CsvSerializer();
+    }
+
+    private String serialize(String body) {
+        return Strings.toString(csvSerializer.serialize(EventBuilder.withBody(body.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * tests csv serializer
+     */
+    @Test
+    public void testSerializer() {
+        Context context = new Context();
+        context.put("csv.fields", "id:int,name:string,currentEmployee:boolean,leaves:float,"
+                + "salary:double,badge:long,joined:timestamp");
+        context.put("csv.delimiter", ",");
+        csvSerializer.configure(context);
+        assertEquals("{\"id\":1,\"name\":\"test\",\"currentEmployee\":true,\"leaves\":11.5,"
+                        + "\"salary\":-1234.56,\"badge\":9223372036854775807,\"joined\":\"2017-07-14T02:40:00.000Z\"}",
+                serialize("1,test,TRUE,11.5,-1234.56,9223372036854775807,1500000000000,ignored"));
+    }
+
+    /**
+     * tests quoted fields, multi byte delimiters and non ascii strings
+     */
+    @Test
+    public void testQuoted() {
+        Context context = new Context();
+        context.put("csv.fields", "name,comment,count:int");
+        context.put("csv.delimiter", "||");
+        csvSerializer.configure(context);
+        assertEquals("{\"name\":\"a||b\",\"comment\":\"say \\\"hé\\\"\",\"count\":-3}",
+                serialize("\"a||b\"||\"say \"\"hé\"\"\"||\"-3\""));
+        assertEquals("{\"name\":\"\",\"comment\":\"tab\\tand \\\"quote\",\"count\":0}",
+                serialize("||tab\tand \"quote||+0"));
+    }
+
+    /**
+     * tests that bodies not matching the fields are indexed as is
+     */
+    @Test
+    public void testMalformed() {
+        Context context = new Context();
+        context.put("csv.fields", "id:int,value:double");
+        context.put("csv.delimiter", ",");
+        csvSerializer.configure(context);
+        assertEquals("{\"body\":\"1\"}", serialize("1"));
+        assertEquals("{\"body\":\"1,x\"}", serialize("1,x"));
+        assertEquals("{\"body\":\"2147483648,1\"}", serialize("2147483648,1"));
+        assertEquals("{\"body\":\"\\\"1,2\"}", serialize("\"1,2"));
+        assertEquals("{\"body\":\"\\\"1\\\"2,3\"}", serialize("\"1\"2,3"));
+    }
+
+    /**
+     * tests the configured headers with their types and all the headers
+     */
+    @Test
+    public void testHeaders() throws Exception {
+        assertNotNull("headers should be written with pre-encoded names", Util.jsonGenerator(jsonBuilder()));
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("host", "web-\"01\"");
+        headers.put("status", "404");
+        headers.put("latency", "1.5");
+        headers.put("ok", "false");
+        Context context = new Context();
+        context.put("csv.fields", "id:int");
+        context.put("headers", "status:int,host,missing:long,latency:double");
+        csvSerializer.configure(context);
+        assertEquals("{\"id\":1,\"status\":404,\"host\":\"web-\\\"01\\\"\",\"latency\":1.5}",
+                Strings.toString(csvSerializer.serialize(EventBuilder.withBody("1".getBytes(), headers))));
+
+        csvSerializer = new CsvSerializer();
+        context.put("headers", "*,status:int");
+        csvSerializer.configure(context);
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("id", 1);
+        expected.put("host", "web-\"01\"");
+        expected.put("status", 404);
+        expected.put("latency", "1.5");
+        expected.put("ok", "false");
+        assertEquals(expected, XContentHelper.convertToMap(BytesReference.bytes(
+                csvSerializer.serialize(EventBuilder.withBody("1".getBytes(), headers))), false, XContentType.JSON).v2());
+    }
+
+    /**
+     * tests that the headers are written through the builder when the json generator is not reachable
+     */
+    @Test
+    public void testHeadersFallback() throws Exception {
+        XContentBuilder builder = XContentFactory.cborBuilder();
+        assertNull(Util.jsonGenerator(builder));
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("host", "web-\"01\"");
+        headers.put("status", "404");
+        headers.put("ok", "false");
+        Context context = new Context();
+        context.put("csv.fields", "id:int");
+        context.put("headers", "status:int,host,missing:long,ok:boolean");
+        csvSerializer.configure(context);
+        builder.startObject();
+        csvSerializer.addHeaders(EventBuilder.withBody("1".getBytes(), headers), builder);
+        builder.endObject();
+        assertEquals("{\"status\":404,\"host\":\"web-\\\"01\\\"\",\"ok\":false}",
+                XContentHelper.convertToJson(BytesReference.bytes(builder), false, XContentType.CBOR));
+    }
+
+    /**
+     * tests the byte level number parsing against the jdk
+     */
+    @Test
+    public void testNumbers() {
+        String[] values = {"0", "-0", "0.1", "-0.30000000000000004", "3.4028235E38", "1e-5", "123456789012345678",
+                "9007199254740993", ".5", "5.", "0.000000000000000000001", "NaN", "-Infinity", "16777217",
+                "1.17549435E-38", "99999999999999999999", "2.2250738585072014E-308", "0x1p3"};
+        for (String value : values) {
+            CsvTokenizer.Row row = new CsvTokenizer.Row(1);
+            new CsvTokenizer(",", "").tokenize(value.getBytes(StandardCharsets.UTF_8), row);
+            assertTrue(value, row.parseDouble(0));
+            assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)),
+                    Double.doubleToLongBits(row.doubleValue(0)));
+            assertTrue(value, row.parseFloat(0));
+            assertEquals(value, Float.floatToIntBits(Float.parseFloat(value)), Float.floatToIntBits(row.floatValue(0)));
+        }
+        for (String value : new String[]{"", "-", "1.2.3", "1,5", "abc"}) {
+            CsvTokenizer.Row row = new CsvTokenizer.Row(1);
+            new CsvTokenizer(";", "").tokenize(value.getBytes(StandardCharsets.UTF_8), row);
+            assertFalse(value, row.parseDouble(0));
+            assertFalse(value, row.parseLong(0));
+        }
+        CsvTokenizer.Row row = new CsvTokenizer.Row(1);
+        new CsvTokenizer(";", "").tokenize("-9223372036854775808".getBytes(StandardCharsets.UTF_8), row);
+        assertTrue(row.parseLong(0));
+        assertEquals(Long.MIN_VALUE, row.longValue(0));
+        new CsvTokenizer(";", "").tokenize("9223372036854775808".getBytes(StandardCharsets.UTF_8), row);
+        assertFalse(row.parseLong(0));
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestDeadLetterQueue {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * tests that queued documents are written to segments and can be read back
+     */
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File dir = folder.newFolder("dlq");
+        ElasticSearchSinkCounter sinkCounter = new ElasticSearchSinkCounter("test");
+        DeadLetterQueue deadLetterQueue = new DeadLetterQueue(dir, 1024, 60000, 1024 * 1024, 100, sinkCounter);
+        deadLetterQueue.start("test");
+        for (int i = 0; i < 20; i++) {
+            assertTrue(deadLetterQueue.offer("index", i % 2 == 0 ? "id" + i : null,
+                    new BytesArray("{\"field\": " + i + "}"), "mapper_parsing_exception"));
+        }
+        deadLetterQueue.stop();
+
+        File[] segments = DeadLetterQueue.listSegments(dir);
+        assertTrue("documents should be rolled over several segments", segments.length > 1);
+        List<DeadLetterQueue.Entry> entries = new ArrayList<>();
+        for (File segment : segments) {
+            DeadLetterQueue.read(segment, entries::add);
+        }
+        assertEquals(20, entries.size());
+        assertEquals(20, sinkCounter.getDeadLetterWrittenCount());
+        for (int i = 0; i < 20; i++) {
+            DeadLetterQueue.Entry entry = entries.get(i);
+            assertEquals("index", entry.getIndex());
+            assertEquals(i % 2 == 0 ? "id" + i : null, entry.getId());
+            assertEquals("{\"field\": " + i + "}", entry.getSource().utf8ToString());
+            assertEquals("mapper_parsing_exception", entry.getReason());
+        }
+    }
+
+    /**
+     * tests that the callback learns whether a document was written or dropped
+     */
+    @Test
+    public void testStoredCallback() throws Exception {
+        File dir = folder.newFolder("dlq");
+        DeadLetterQueue deadLetterQueue = new DeadLetterQueue(dir, 256, 60000, 1024 * 1024, 100,
+                new ElasticSearchSinkCounter("test"));
+        List<Boolean> outcomes = Collections.synchronizedList(new ArrayList<>());
+        assertFalse("a stopped queue drops documents", deadLetterQueue.offer("index", null,
+                new BytesArray("{}"), "error", outcomes::add));
+        deadLetterQueue.start("test");
+        assertTrue(deadLetterQueue.offer("index", null, new BytesArray("{}"), "error", outcomes::add));
+        assertTrue(deadLetterQueue.offer("index", null, new BytesArray(new byte[512]), "error", outcomes::add));
+        deadLetterQueue.stop();
+        assertEquals(Arrays.asList(false, true, false), outcomes);
+    }
+
+    /**
+     * tests that the oldest segments are deleted once the directory outgrows its budget
+     */
+    @Test
+    public void testMaxSize() throws Exception {
+        File dir = folder.newFolder("dlq");
+        DeadLetterQueue deadLetterQueue = new DeadLetterQueue(dir, 256, 60000, 1024, 100,
+                new ElasticSearchSinkCounter("test"));
+        deadLetterQueue.start("test");
+        for (int i = 0; i < 50; i++) {
+            deadLetterQueue.offer("index", null, new BytesArray("{\"field\": " + i + "}"), "error");
+        }
+        deadLetterQueue.stop();
+        long total = 0;
+        for (File segment : DeadLetterQueue.listSegments(dir)) {
+            total += segment.length();
+        }
+        assertTrue(total <= 1024 + 256);
+    }
+}
@@ -0,0 +1,166 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import com.cognitree.flume.sink.elasticsearch.client.BulkStreams;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.Sink;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.xcontent.XContentFactory.jsonBuilder;
+import static org.junit.Assert.*;
+
+public class TestElasticSearchSink {
+
+    private static final int EVENTS = 100;
+
+    private final List<DocWriteRequest<?>> sent = new CopyOnWriteArrayList<>();
+
+    private ElasticSearchSink sink;
+
+    private Channel channel;
+
+    private BulkStreams bulkStreams;
+
+    @Before
+    public void init() {
+        channel = new MemoryChannel();
+        Context channelContext = new Context();
+        channelContext.put("capacity", "1000");
+        channelContext.put("transactionCapacity", "1000");
+        Configurables.configure(channel, channelContext);
+        channel.start();
+
+        sink = new ElasticSearchSink();
+        sink.setName("test");
+        Context context = new Context();
+        context.put("es.client.hosts", "localhost:9200");
+        context.put("es.serialize.parallelism", "4");
+        context.put("es.serializer", SlowSerializer.class.getName());
+        sink.configure(context);
+        sink.setChannel(channel);
+        sink.start();
+
+        bulkStreams = BulkStreams.create(new Context(), sink.getSinkCounter());
+        bulkStreams.start("test", sizer -> BulkProcessor.builder((request, listener) -> {
+            sent.addAll(request.requests());
+            listener.onResponse(new BulkResponse(new BulkItemResponse[0], 1));
+        }, new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            }
+        }).setBulkActions(10000).setConcurrentRequests(0).build());
+        sink.setBulkStreams(bulkStreams);
+    }
+
+    @After
+    public void close() {
+        sink.stop();
+        channel.stop();
+    }
+
+    /**
+     * tests that the slices serialized in parallel are handed over in the order of the channel
+     */
+    @Test
+    public void testParallelOrder() throws Exception {
+        put(-1);
+        assertEquals(Sink.Status.READY, sink.process());
+        bulkStreams.flush();
+        assertEquals(EVENTS, sent.size());
+        for (int i = 0; i < EVENTS; i++) {
+            assertEquals("{\"n\":" + i + "}", ((IndexRequest) sent.get(i)).source().utf8ToString());
+        }
+        assertEquals(0, remaining());
+    }
+
+    /**
+     * tests that a failing slice rolls the whole batch back without handing over the other slices
+     */
+    @Test
+    public void testParallelFailure() throws Exception {
+        put(80);
+        assertEquals(Sink.Status.BACKOFF, sink.process());
+        bulkStreams.flush();
+        assertTrue("no request of the batch should be sent", sent.isEmpty());
+        assertEquals(EVENTS, remaining());
+    }
+
+    private void put(int failing) {
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        for (int i = 0; i < EVENTS; i++) {
+            String body = i == failing ? "fail" : Integer.toString(i);
+            channel.put(EventBuilder.withBody(body.getBytes(StandardCharsets.UTF_8)));
+        }
+        txn.commit();
+        txn.close();
+    }
+
+    private int remaining() {
+        Transaction txn = channel.getTransaction();
+        txn.begin();
+        int count = 0;
+        while (channel.take() != null) {
+            count++;
+        }
+        txn.rollback();
+        txn.close();
+        return count;
+    }
+
+    /**
+     * Writes {"n": body}, the first slice slowest so that it completes last, and throws on "fail"
+     */
+    public static class SlowSerializer implements Serializer {
+
+        @Override
+        public XContentBuilder serialize(Event event) {
+            String body = new String(event.getBody(), StandardCharsets.UTF_8);
+            if ("fail".equals(body)) {
+                throw new IllegalStateException("cannot serialize");
+            }
+            int n = Integer.parseInt(body);
+            try {
+                if (n < EVENTS / 4) {
+                    TimeUnit.MILLISECONDS.sleep(2);
+                }
+                return jsonBuilder().startObject().field("n", n).endObject();
+            } catch (InterruptedException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void configure(Context context) {
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestExpressionIndexer {
+
+    private static final String BODY = "{\"level\":\"ERROR\",\"ignored\":{\"a\":[1,{\"b\":2}]},"
+            + "\"user\":{\"id\":42,\"name\":null,\"tags\":[\"x\"]},\"ts\":1500000000000,\"app\":\"Shop \"}";
+
+    private static String eval(String expression, Event event) {
+        BodyFields fields = new BodyFields();
+        return Expression.compile(expression, fields).eval(new Expression.Scope(event, fields));
+    }
+
+    /**
+     * tests the operators, the functions and the header and body accessors
+     */
+    @Test
+    public void testExpressions() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("host", "web-01");
+        headers.put("x y", "spaced");
+        headers.put("flume.type", "log");
+        Event event = EventBuilder.withBody(BODY.getBytes(StandardCharsets.UTF_8), headers);
+
+        assertEquals("web-01", eval("host", event));
+        assertEquals("log", eval("flume.type", event));
+        assertEquals("spaced", eval("header('x y')", event));
+        assertEquals("ERROR", eval("body.level", event));
+        assertEquals("42", eval("body.user.id", event));
+        assertNull(eval("body.user.name", event));
+        assertNull(eval("body.user.tags", event));
+        assertNull(eval("body.ignored.a", event));
+        assertEquals("logs-shop-error", eval("'logs-' + lower(trim(body.app)) + \"-\" + lower(body.level)", event));
+        assertEquals("alerts", eval("body.level == 'ERROR' && host != 'db' ? 'alerts' : 'logs'", event));
+        assertEquals("logs", eval("!(body.level == 'ERROR') || missing ? 'alerts' : 'logs'", event));
+        assertEquals("anonymous", eval("coalesce(body.user.name, missing, 'anonymous')", event));
+        assertEquals("web", eval("substring(host, 0, 3)", event));
+        assertEquals("01", eval("substring(host, 4)", event));
+        assertEquals("web_01", eval("replace(host, '-', '_')", event));
+        assertEquals("WEB-01", eval("upper(host)", event));
+        assertEquals("logs-2017.07.14", eval("'logs-' + date(body.ts, 'yyyy.MM.dd')", event));
+        assertEquals("2017.07.13", eval("date(body.ts, 'yyyy.MM.dd', 'America/New_York')", event));
+        assertEquals("1500000000000", eval("parseDate('2017-07-14 02:40:00', 'yyyy-MM-dd HH:mm:ss')", event));
+        assertNull(eval("date(missing, 'yyyy')", event));
+        assertEquals("1499990400000", eval("parseDate('2017-07-14', 'yyyy-MM-dd')", event));
+        assertEquals("logs-2017.07.14", eval("'logs-' + date(parseDate('2017-07-14', 'yyyy-MM-dd'), 'yyyy.MM.dd')", event));
+        assertNull(eval("parseDate('14 July', 'dd MMMM')", event));
+        assertEquals("it's", eval("'it\\'s'", event));
+        assertNull(eval("null", event));
+        assertNull(eval("body.level", EventBuilder.withBody("not json".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * tests that malformed expressions fail at configure time
+     */
+    @Test
+    public void testMalformed() {
+        String[] expressions = {"", "'unterminated", "lower(a, b)", "unknown(a)", "a ? b", "(a", "a b",
+                "date(a, pattern)"};
+        for (String expression : expressions) {
+            try {
+                Expression.compile(expression, new BodyFields());
+                fail(expression);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid expression"));
+            }
+        }
+    }
+
+    /**
+     * tests the indexer, the include list and the single pass over the body shared by the index and id
+     */
+    @Test
+    public void testIndexer() {
+        ExpressionIndexer indexer = new ExpressionIndexer();
+        Context context = new Context();
+        context.put("index.expression", "'logs-' + lower(coalesce(body.level, 'info'))");
+        context.put("id.expression", "body.user.id + '-' + host");
+        context.put("routing.expression", "coalesce(tenant, body.user.id)");
+        context.put("index.include", "logs-error,logs-info");
+        indexer.configure(context);
+        Event event = EventBuilder.withBody(BODY.getBytes(StandardCharsets.UTF_8),
+                Collections.singletonMap("host", "web-01"));
+        assertEquals("logs-error", indexer.getIndex(event));
+        assertEquals("42-web-01", indexer.getId(event));
+        assertEquals("42", indexer.getRouting(event));
+        assertTrue(indexer.hasScope());
+        indexer.release(event);
+        assertFalse("the event must not stay reachable", indexer.hasScope());
+        assertEquals("logs-info", indexer.getIndex(EventBuilder.withBody("{}".getBytes(StandardCharsets.UTF_8))));
+        assertNull(indexer.getIndex(EventBuilder.withBody("{\"level\":\"debug\"}".getBytes(StandardCharsets.UTF_8))));
+
+        BodyFields fields = new BodyFields();
+        assertEquals(0, fields.add("level"));
+        assertEquals(1, fields.add("user.id"));
+        assertEquals(0, fields.add("level"));
+        // the scan stops once both fields are found, the rest of the body is not read
+        assertArrayEquals(new String[]{"ERROR", "42"}, fields.extract((BODY.substring(0, BODY.indexOf(",\"ts\""))
+                + ",\"broken").getBytes(StandardCharsets.UTF_8)));
+    }
+
+}
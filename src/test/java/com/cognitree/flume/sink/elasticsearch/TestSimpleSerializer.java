@@ -0,0 +1,82 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TestSimpleSerializer {
+
+    private SimpleSerializer simpleSerializer;
+
+    @Before
+    public void init() {
+        simpleSerializer = new SimpleSerializer();
+    }
+
+    /**
+     * tests that the body is handed over without being re-encoded
+     */
+    @Test
+    public void testPassthrough() {
+        Context context = new Context();
+        context.put("json.passthrough", "true");
+        simpleSerializer.configure(context);
+        byte[] body = "{\"id\": 1, \"name\": \"te}st\", \"tags\": [\"a\", \"b\"]}".getBytes(StandardCharsets.UTF_8);
+        Event event = EventBuilder.withBody(body);
+        BytesReference source = simpleSerializer.toSource(event);
+        assertNotNull(source);
+        assertSame(body, source.toBytesRef().bytes);
+    }
+
+    /**
+     * tests that unbalanced bodies are rejected in passthrough mode
+     */
+    @Test
+    public void testPassthroughInvalid() {
+        Context context = new Context();
+        context.put("json.passthrough", "true");
+        simpleSerializer.configure(context);
+        Event event = EventBuilder.withBody("{\"id\": 1".getBytes(StandardCharsets.UTF_8));
+        assertNull(simpleSerializer.toSource(event));
+    }
+
+    /**
+     * tests the validation modes
+     */
+    @Test
+    public void testValidator() {
+        byte[] valid = "  {\"a\": {\"b\": [1, 2, \"\\\"}\"]}}\n".getBytes(StandardCharsets.UTF_8);
+        byte[] unbalanced = "{\"a\": [1, 2}".getBytes(StandardCharsets.UTF_8);
+        byte[] badToken = "{\"a\": tru}".getBytes(StandardCharsets.UTF_8);
+        byte[] array = "[1, 2]".getBytes(StandardCharsets.UTF_8);
+        assertTrue(JsonValidator.isValid(valid, JsonValidator.Mode.BALANCE));
+        assertTrue(JsonValidator.isValid(valid, JsonValidator.Mode.SKIM));
+        assertFalse(JsonValidator.isValid(unbalanced, JsonValidator.Mode.SKIM));
+        assertFalse(JsonValidator.isValid(array, JsonValidator.Mode.BALANCE));
+        assertTrue(JsonValidator.isValid(badToken, JsonValidator.Mode.BALANCE));
+        assertFalse(JsonValidator.isValid(badToken, JsonValidator.Mode.SKIM));
+        assertFalse(JsonValidator.isValid(unbalanced, JsonValidator.Mode.BALANCE));
+        assertFalse(JsonValidator.isValid("{\"a\":[}]".getBytes(StandardCharsets.UTF_8), JsonValidator.Mode.BALANCE));
+        assertFalse(JsonValidator.isValid("{\"a\":[1]]".getBytes(StandardCharsets.UTF_8), JsonValidator.Mode.BALANCE));
+        assertFalse(JsonValidator.isValid("[}".getBytes(StandardCharsets.UTF_8), JsonValidator.Mode.BALANCE));
+        StringBuilder deep = new StringBuilder("{\"a\":");
+        for (int i = 0; i < 200; i++) {
+            deep.append(i % 3 == 0 ? "{\"b\":" : "[");
+        }
+        deep.append('1');
+        for (int i = 199; i >= 0; i--) {
+            deep.append(i % 3 == 0 ? '}' : ']');
+        }
+        assertTrue(JsonValidator.isValid(deep.append('}').toString().getBytes(StandardCharsets.UTF_8),
+                JsonValidator.Mode.BALANCE));
+        deep.setCharAt(deep.length() - 80, deep.charAt(deep.length() - 80) == '}' ? ']' : '}');
+        assertFalse(JsonValidator.isValid(deep.toString().getBytes(StandardCharsets.UTF_8), JsonValidator.Mode.BALANCE));
+    }
+}
@@ -0,0 +1,152 @@
+package com.cognitree.flume.sink.elasticsearch;
+
+import org.apache.flume.Context;
+import org.apache.flume.event.EventBuilder;
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestTemplateIndexer {
+
+    /**
+     * tests that the compiled templates render as the regex based Util.template
+     */
+    @Test
+    public void testTemplate() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("app", "shop");
+        headers.put("Y", "ignored");
+        headers.put("id", "42");
+        String[] templates = {"logs-${app}-${Y}.${M}.${D}", "${ app }-${missing}-${DATE}", "static", "${id}",
+                "${app}${app}", "${", "${}-x"};
+        for (String template : templates) {
+            TemplateIndexer indexer = new TemplateIndexer();
+            Context context = new Context();
+            context.put("index.template", template);
+            context.put("id.template", template);
+            indexer.configure(context);
+
+            Date now = new Date();
+            Map<String, Object> params = new HashMap<>(headers);
+            params.put("Y", DateUtils.formatDate(now, "yyyy"));
+            params.put("M", DateUtils.formatDate(now, "MM"));
+            params.put("D", DateUtils.formatDate(now, "dd"));
+            params.put("DATE", DateUtils.formatDate(now, "yyyy-MM-dd"));
+            String expected = Util.template(template, params);
+            assertEquals(template, expected, indexer.getIndex(EventBuilder.withBody(new byte[0], headers)));
+            assertEquals(template, expected, indexer.getId(EventBuilder.withBody(new byte[0], headers)));
+        }
+
+        TemplateIndexer indexer = new TemplateIndexer();
+        indexer.configure(new Context());
+        assertNull(indexer.getIndex(EventBuilder.withBody(new byte[0])));
+        assertNull(indexer.getId(EventBuilder.withBody(new byte[0])));
+    }
+
+    /**
+     * tests the buckets of each granularity and that their tokens are formatted once
+     */
+    @Test
+    public void testTimeBuckets() {
+        TimeBuckets days = new TimeBuckets(ZoneOffset.UTC, TimeBuckets.Granularity.DAY, 2);
+        long millis = 1500000000000L;
+        TimeBuckets.Bucket day = days.of(millis);
+        assertEquals("2017-07-14", day.get(TimeBuckets.DATE));
+        assertEquals("2017", day.get(TimeBuckets.YEAR));
+        assertEquals("07", day.get(TimeBuckets.MONTH));
+        assertEquals("14", day.get(TimeBuckets.DAY));
+        assertSame(day, days.of(1500076799999L));
+        assertEquals("15", days.of(1500076800000L).get(TimeBuckets.DAY));
+        assertSame("late data should hit the cache", day, days.of(millis));
+        assertEquals("1969-12-31", days.of(-1).get(TimeBuckets.DATE));
+
+        ZoneId kolkata = ZoneId.of("Asia/Kolkata");
+        TimeBuckets hours = new TimeBuckets(kolkata, TimeBuckets.Granularity.HOUR, 4);
+        assertEquals("08", hours.of(millis).get(TimeBuckets.HOUR));
+        assertEquals("2017-07-14", hours.of(millis).get(TimeBuckets.DATE));
+        assertEquals("2017-07-10", new TimeBuckets(ZoneOffset.UTC, TimeBuckets.Granularity.WEEK, 4)
+                .of(millis).get(TimeBuckets.DATE));
+        assertEquals("28", new TimeBuckets(ZoneOffset.UTC, TimeBuckets.Granularity.WEEK, 4)
+                .of(millis).get(TimeBuckets.WEEK));
+        assertEquals("2017-07-01", new TimeBuckets(ZoneOffset.UTC, TimeBuckets.Granularity.MONTH, 4)
+                .of(millis).get(TimeBuckets.DATE));
+    }
+
+    /**
+     * tests that the year of week templates is the ISO week-based year across year boundaries
+     */
+    @Test
+    public void testWeekYear() {
+        TimeBuckets weeks = new TimeBuckets(ZoneOffset.UTC, TimeBuckets.Granularity.WEEK, 4);
+        TimeBuckets days = new TimeBuckets(ZoneOffset.UTC, TimeBuckets.Granularity.DAY, 4);
+        IndexTemplate weekly = IndexTemplate.compile("logs-${Y}.${W}");
+        IndexTemplate daily = IndexTemplate.compile("logs-${Y}.${M}.${D}");
+        // Monday 2024-12-30 starts week 01 of 2025
+        long millis = 1735516800000L;
+        assertEquals("2024-12-30", weeks.of(millis).get(TimeBuckets.DATE));
+        assertEquals("logs-2025.01", weekly.render(Collections.emptyMap(), weeks.of(millis)));
+        assertEquals("logs-2025.01", weekly.render(Collections.emptyMap(), days.of(millis)));
+        assertEquals("logs-2024.12.30", daily.render(Collections.emptyMap(), days.of(millis)));
+        // Friday 2021-01-01 belongs to week 53 of 2020
+        millis = 1609459200000L;
+        assertEquals("logs-2020.53", weekly.render(Collections.emptyMap(), weeks.of(millis)));
+        assertEquals("logs-2020.53", weekly.render(Collections.emptyMap(), days.of(millis)));
+        assertEquals("logs-2021.01.01", daily.render(Collections.emptyMap(), days.of(millis)));
+        assertEquals("logs-2017.28", weekly.render(Collections.emptyMap(), weeks.of(1500000000000L)));
+    }
+
+    /**
+     * tests the index of the event time in epoch millis and formatted, and the wall clock fallback
+     */
+    @Test
+    public void testEventTime() {
+        TemplateIndexer indexer = new TemplateIndexer();
+        Context context = new Context();
+        context.put("index.template", "logs-${Y}.${M}.${D}");
+        context.put("id.template", "${id}-${DATE}");
+        context.put("routing.template", "${tenant}");
+        context.put("time.header", "timestamp");
+        context.put("time.zone", "America/New_York");
+        indexer.configure(context);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("timestamp", "1500000000000");
+        headers.put("id", "1");
+        assertEquals("logs-2017.07.13", indexer.getIndex(EventBuilder.withBody(new byte[0], headers)));
+        assertEquals("1-2017-07-13", indexer.getId(EventBuilder.withBody(new byte[0], headers)));
+        assertNull("events without the header are routed by id", indexer.getRouting(EventBuilder.withBody(new byte[0], headers)));
+        headers.put("tenant", "acme");
+        assertEquals("acme", indexer.getRouting(EventBuilder.withBody(new byte[0], headers)));
+        IndexTemplate routing = IndexTemplate.compile("${tenant}-${region}");
+        assertNull(routing.renderComplete(headers, null));
+        assertEquals("acme-${region}", routing.render(headers, null));
+
+        context.put("time.format", "yyyy-MM-dd HH:mm:ss");
+        context.put("time.granularity", "month");
+        indexer.configure(context);
+        headers.put("timestamp", "2016-02-29 23:59:59");
+        assertEquals("logs-2016.02.01", indexer.getIndex(EventBuilder.withBody(new byte[0], headers)));
+        headers.put("timestamp", "malformed");
+        assertEquals("logs-" + DateTimeFormatter.ofPattern("yyyy.MM").withZone(ZoneId.of("America/New_York"))
+                .format(Instant.now()) + ".01", indexer.getIndex(EventBuilder.withBody(new byte[0], headers)));
+        assertEquals(1, indexer.getMalformedTimes());
+
+        // a date only format reads the start of the day in the zone
+        context.put("time.format", "yyyy-MM-dd");
+        context.put("time.granularity", "day");
+        indexer.configure(context);
+        headers.put("timestamp", "2016-02-29");
+        assertEquals("logs-2016.02.29", indexer.getIndex(EventBuilder.withBody(new byte[0], headers)));
+        assertEquals("the date should not be malformed", 1, indexer.getMalformedTimes());
+    }
+
+}
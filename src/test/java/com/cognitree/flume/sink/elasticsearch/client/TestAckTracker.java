@@ -0,0 +1,130 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.apache.flume.EventDeliveryException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+public class TestAckTracker {
+
+    private AckTracker ackTracker;
+
+    @Before
+    public void init() {
+        ackTracker = new AckTracker();
+    }
+
+    /**
+     * tests that a batch is acknowledged once its items succeed, including retried items
+     */
+    @Test
+    public void testAcknowledgedAfterRetry() throws Exception {
+        IndexRequest first = new IndexRequest("index");
+        IndexRequest second = new IndexRequest("index");
+        AckTracker.Batch batch = track(first, second);
+        BulkRequest request = new BulkRequest().add(first).add(second);
+        ackTracker.onAttempt(request, new BulkResponse(new BulkItemResponse[]{
+                success(0), rejected(1)}, 1));
+        BulkRequest retry = new BulkRequest().add(second);
+        ackTracker.onAttempt(retry, new BulkResponse(new BulkItemResponse[]{success(0)}, 1));
+        ackTracker.onCompletion(request);
+        batch.await(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * tests that a batch fails when one of its items is not indexed
+     */
+    @Test
+    public void testFailedItem() throws Exception {
+        IndexRequest first = new IndexRequest("index");
+        IndexRequest second = new IndexRequest("index");
+        AckTracker.Batch batch = track(first, second);
+        BulkRequest request = new BulkRequest().add(first).add(second);
+        ackTracker.onAttempt(request, new BulkResponse(new BulkItemResponse[]{
+                success(0), rejected(1)}, 1));
+        ackTracker.onCompletion(request);
+        try {
+            batch.await(1, TimeUnit.SECONDS);
+            fail("batch should not be acknowledged");
+        } catch (EventDeliveryException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * tests that a batch is not acknowledged before all of its items are
+     */
+    @Test(expected = EventDeliveryException.class)
+    public void testPending() throws Exception {
+        IndexRequest first = new IndexRequest("index");
+        IndexRequest second = new IndexRequest("index");
+        AckTracker.Batch batch = track(first, second);
+        ackTracker.onAttempt(new BulkRequest().add(first),
+                new BulkResponse(new BulkItemResponse[]{success(0)}, 1));
+        batch.await(10, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * tests that a dead lettered item stays pending until the document is stored, and that
+     * a document dropped by the dead letter queue fails its batch
+     */
+    @Test
+    public void testDeadLettered() throws Exception {
+        IndexRequest stored = new IndexRequest("index");
+        IndexRequest dropped = new IndexRequest("index");
+        AckTracker.Batch storedBatch = track(stored);
+        AckTracker.Batch droppedBatch = track(dropped);
+        BulkRequest request = new BulkRequest().add(stored).add(dropped);
+        ackTracker.onAttempt(request, new BulkResponse(new BulkItemResponse[]{
+                rejected(0), rejected(1)}, 1));
+        ackTracker.defer(stored);
+        ackTracker.defer(dropped);
+        ackTracker.onCompletion(request);
+        try {
+            storedBatch.await(10, TimeUnit.MILLISECONDS);
+            fail("batch should wait for the dead letter queue");
+        } catch (EventDeliveryException expected) {
+            // expected
+        }
+        ackTracker.settle(stored);
+        storedBatch.await(1, TimeUnit.SECONDS);
+        ackTracker.fail(dropped, "dropped");
+        try {
+            droppedBatch.await(1, TimeUnit.SECONDS);
+            fail("batch should not be acknowledged");
+        } catch (EventDeliveryException expected) {
+            // expected
+        }
+    }
+
+    private AckTracker.Batch track(IndexRequest... requests) {
+        AckTracker.Batch batch = ackTracker.newBatch();
+        for (IndexRequest request : requests) {
+            ackTracker.track(request, batch);
+        }
+        batch.seal();
+        return batch;
+    }
+
+    private static BulkItemResponse success(int id) {
+        return BulkItemResponse.success(id, DocWriteRequest.OpType.INDEX,
+                new IndexResponse(new ShardId("index", "_na_", 0), "_doc", "id", 1, 1, 1, true));
+    }
+
+    private static BulkItemResponse rejected(int id) {
+        return BulkItemResponse.failure(id, DocWriteRequest.OpType.INDEX,
+                new BulkItemResponse.Failure("index", "_doc", "id",
+                        new Exception("rejected"), RestStatus.TOO_MANY_REQUESTS));
+    }
+}
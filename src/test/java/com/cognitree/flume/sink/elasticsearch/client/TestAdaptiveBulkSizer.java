@@ -0,0 +1,62 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestAdaptiveBulkSizer {
+
+    private AdaptiveBulkSizer adaptiveSizer;
+
+    @Before
+    public void init() {
+        adaptiveSizer = new AdaptiveBulkSizer(1000, 100, 2000, 100, 0.5, 500, null);
+    }
+
+    /**
+     * tests additive increase under the target latency, bounded by the maximum
+     */
+    @Test
+    public void testIncrease() {
+        adaptiveSizer.onResponse(100, 0);
+        assertEquals(1100, adaptiveSizer.getCurrentActions());
+        for (int i = 0; i < 20; i++) {
+            adaptiveSizer.onResponse(100, 0);
+        }
+        assertEquals(2000, adaptiveSizer.getCurrentActions());
+    }
+
+    /**
+     * tests multiplicative decrease on latency spikes, rejections and failures, bounded by the minimum
+     */
+    @Test
+    public void testDecrease() {
+        adaptiveSizer.onResponse(800, 0);
+        assertEquals(500, adaptiveSizer.getCurrentActions());
+        adaptiveSizer.onResponse(100, 3);
+        assertEquals(250, adaptiveSizer.getCurrentActions());
+        adaptiveSizer.onFailure();
+        adaptiveSizer.onFailure();
+        assertEquals(100, adaptiveSizer.getCurrentActions());
+    }
+
+    /**
+     * tests that a flush is requested once the current number of actions has been added
+     */
+    @Test
+    public void testFlushTrigger() {
+        adaptiveSizer.onFailure();
+        adaptiveSizer.onFailure();
+        adaptiveSizer.onFailure();
+        assertEquals(125, adaptiveSizer.getCurrentActions());
+        for (int i = 1; i < 125; i++) {
+            assertFalse(adaptiveSizer.onAdd());
+        }
+        assertTrue(adaptiveSizer.onAdd());
+        adaptiveSizer.onBulk(125);
+        assertFalse(adaptiveSizer.onAdd());
+    }
+}
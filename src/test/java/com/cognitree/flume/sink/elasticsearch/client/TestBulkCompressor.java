@@ -0,0 +1,50 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import com.cognitree.flume.sink.elasticsearch.ElasticSearchSinkCounter;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class TestBulkCompressor {
+
+    private final ElasticSearchSinkCounter sinkCounter = new ElasticSearchSinkCounter("test");
+
+    /**
+     * tests that bodies are valid gzip and the compression is counted
+     */
+    @Test
+    public void testCompress() throws Exception {
+        BulkCompressor compressor = new BulkCompressor(3, 16, sinkCounter);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("{\"index\":{\"_index\":\"test\"}}\n{\"message\":\"log line ").append(i).append("\"}\n");
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // run twice to reuse the deflater of the thread
+        for (int i = 0; i < 2; i++) {
+            assertTrue(compressor.compress(bytes, 0, bytes.length, out));
+            byte[] decompressed = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+            assertArrayEquals(bytes, decompressed);
+        }
+        assertEquals(2L * bytes.length, sinkCounter.getBulkCompressBytesIn());
+        assertTrue(sinkCounter.getBulkCompressionRatio() > 5);
+    }
+
+    /**
+     * tests that small bodies are left uncompressed
+     */
+    @Test
+    public void testThreshold() {
+        BulkCompressor compressor = new BulkCompressor(3, 1024, sinkCounter);
+        byte[] bytes = "{\"index\":{}}\n{}\n".getBytes(StandardCharsets.UTF_8);
+        assertFalse(compressor.compress(bytes, 0, bytes.length, new ByteArrayOutputStream()));
+        assertEquals(0, sinkCounter.getBulkCompressBytesIn());
+    }
+}
@@ -0,0 +1,117 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestBulkRetryQueue {
+
+    /**
+     * tests the classification of item failures
+     */
+    @Test
+    public void testRetryable() {
+        assertTrue(BulkRetryQueue.isRetryable(RestStatus.TOO_MANY_REQUESTS));
+        assertTrue(BulkRetryQueue.isRetryable(RestStatus.SERVICE_UNAVAILABLE));
+        assertFalse(BulkRetryQueue.isRetryable(RestStatus.BAD_REQUEST));
+        assertFalse(BulkRetryQueue.isRetryable(RestStatus.CONFLICT));
+    }
+
+    /**
+     * tests that items are resubmitted after their backoff, up to the maximum attempts
+     */
+    @Test
+    public void testResubmit() throws Exception {
+        BulkRetryQueue retryQueue = new BulkRetryQueue(10, 2, 10, 100);
+        LinkedBlockingQueue<DocWriteRequest<?>> resubmitted = new LinkedBlockingQueue<>();
+        retryQueue.start("test", resubmitted::add);
+        try {
+            IndexRequest request = new IndexRequest("index");
+            assertTrue(retryQueue.offer(request));
+            assertSame(request, resubmitted.poll(5, TimeUnit.SECONDS));
+            assertTrue(retryQueue.offer(request));
+            assertSame(request, resubmitted.poll(5, TimeUnit.SECONDS));
+            assertFalse(retryQueue.offer(request));
+        } finally {
+            retryQueue.stop();
+        }
+    }
+
+    /**
+     * tests that the queue is bounded, also under concurrent offers
+     */
+    @Test
+    public void testCapacity() throws Exception {
+        BulkRetryQueue retryQueue = new BulkRetryQueue(2, 5, 10000, 10000);
+        retryQueue.start("test", request -> {
+        });
+        try {
+            assertTrue(retryQueue.offer(new IndexRequest("index")));
+            assertTrue(retryQueue.offer(new IndexRequest("index")));
+            assertFalse(retryQueue.offer(new IndexRequest("index")));
+            assertEquals(2, retryQueue.size());
+        } finally {
+            retryQueue.stop();
+        }
+
+        BulkRetryQueue concurrent = new BulkRetryQueue(100, 5, 10000, 10000);
+        concurrent.start("test", request -> {
+        });
+        try {
+            AtomicInteger accepted = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 100; j++) {
+                        if (concurrent.offer(new IndexRequest("index"))) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(100, accepted.get());
+            assertEquals(100, concurrent.size());
+        } finally {
+            concurrent.stop();
+        }
+    }
+
+    /**
+     * tests that a stopped queue resubmits its items and refuses new ones
+     */
+    @Test
+    public void testStop() {
+        BulkRetryQueue retryQueue = new BulkRetryQueue(10, 5, 10000, 10000);
+        assertFalse("a queue not started refuses items", retryQueue.offer(new IndexRequest("index")));
+        List<DocWriteRequest<?>> resubmitted = new ArrayList<>();
+        retryQueue.start("test", resubmitted::add);
+        IndexRequest request = new IndexRequest("index");
+        assertTrue(retryQueue.offer(request));
+        retryQueue.stop();
+        assertEquals(Collections.singletonList(request), resubmitted);
+        assertFalse(retryQueue.offer(new IndexRequest("index")));
+        assertEquals(0, retryQueue.size());
+    }
+}
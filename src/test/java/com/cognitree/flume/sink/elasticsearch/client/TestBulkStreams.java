@@ -0,0 +1,129 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import com.cognitree.flume.sink.elasticsearch.ElasticSearchSinkCounter;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TestBulkStreams {
+
+    private final List<BulkRequest> bulks = new CopyOnWriteArrayList<>();
+
+    private BulkStreams bulkStreams;
+
+    @After
+    public void close() throws Exception {
+        bulkStreams.awaitClose(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * tests that every index gets its own bulk, and groups share one
+     */
+    @Test
+    public void testPerIndex() {
+        start(true, BulkStreams.parseGroups("logs:logs-*"), 10, 60000);
+        add("logs-a", "logs-b", "metrics", "other", "metrics");
+        bulkStreams.flush();
+        assertEquals(3, bulks.size());
+        for (BulkRequest bulk : bulks) {
+            String index = bulk.requests().get(0).index();
+            for (int i = 1; i < bulk.numberOfActions(); i++) {
+                assertEquals(index.startsWith("logs-"), bulk.requests().get(i).index().startsWith("logs-"));
+            }
+        }
+    }
+
+    /**
+     * tests that a single shared stream is used by default and beyond the maximum
+     */
+    @Test
+    public void testShared() {
+        start(true, Collections.emptyMap(), 1, 60000);
+        add("one", "two", "three");
+        bulkStreams.flush();
+        assertEquals(2, bulks.size());
+        assertEquals(2, bulkStreams.size());
+    }
+
+    /**
+     * tests that idle streams are closed and reopened on demand
+     */
+    @Test
+    public void testReclaimIdle() throws Exception {
+        start(true, Collections.emptyMap(), 10, 10);
+        add("one");
+        Thread.sleep(50);
+        bulkStreams.reclaimIdle();
+        assertEquals(1, bulkStreams.size());
+        // closing flushed the pending request
+        assertEquals(1, bulks.size());
+        add("one");
+        assertEquals(2, bulkStreams.size());
+    }
+
+    /**
+     * tests that the maximum does not count the shared stream and that the bulk actions gauge
+     * sums the sizers of the open streams
+     */
+    @Test
+    public void testMaxStreamsAndGauge() throws Exception {
+        ElasticSearchSinkCounter sinkCounter = new ElasticSearchSinkCounter("test");
+        start(true, Collections.emptyMap(), 2, 10,
+                () -> new AdaptiveBulkSizer(100, 10, 1000, 10, 0.5, 500, sinkCounter));
+        add("one", "two", "three", "four");
+        assertEquals(3, bulkStreams.size());
+        assertEquals(300, sinkCounter.getBulkActionsCurrent());
+        Thread.sleep(50);
+        bulkStreams.reclaimIdle();
+        assertEquals(100, sinkCounter.getBulkActionsCurrent());
+        add("three");
+        assertEquals(2, bulkStreams.size());
+        assertEquals(200, sinkCounter.getBulkActionsCurrent());
+    }
+
+    private void start(boolean perIndex, Map<String, Pattern> groups, int maxStreams, long idleMillis) {
+        start(perIndex, groups, maxStreams, idleMillis, () -> null);
+    }
+
+    private void start(boolean perIndex, Map<String, Pattern> groups, int maxStreams, long idleMillis,
+                       Supplier<AdaptiveBulkSizer> sizers) {
+        bulkStreams = new BulkStreams(perIndex, groups, maxStreams, idleMillis, sizers);
+        bulkStreams.start("test", sizer -> BulkProcessor.builder((request, listener) -> {
+            bulks.add(request);
+            listener.onResponse(new BulkResponse(new BulkItemResponse[0], 1));
+        }, new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            }
+        }).setBulkActions(1000).setConcurrentRequests(0).build());
+    }
+
+    private void add(String... indices) {
+        for (String index : indices) {
+            bulkStreams.add(new IndexRequest(index).source("{}", XContentType.JSON));
+        }
+    }
+}
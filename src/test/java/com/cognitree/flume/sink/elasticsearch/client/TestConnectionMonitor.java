@@ -0,0 +1,68 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestConnectionMonitor {
+
+    private final AtomicBoolean reachable = new AtomicBoolean(false);
+
+    private final AtomicInteger probes = new AtomicInteger();
+
+    private ConnectionMonitor connectionMonitor;
+
+    @Before
+    public void init() {
+        connectionMonitor = new ConnectionMonitor("test", () -> {
+            probes.incrementAndGet();
+            return reachable.get();
+        }, 10, 40);
+    }
+
+    @After
+    public void close() {
+        connectionMonitor.close();
+    }
+
+    /**
+     * tests the closed, open and half-open transitions
+     */
+    @Test
+    public void testTransitions() throws Exception {
+        assertTrue(connectionMonitor.await(0));
+        connectionMonitor.onFailure();
+        assertEquals(ConnectionMonitor.State.OPEN, connectionMonitor.getState());
+        assertFalse(connectionMonitor.await(50));
+        // failures while open do not schedule more probes
+        connectionMonitor.onFailure();
+        reachable.set(true);
+        assertTrue(connectionMonitor.await(5000));
+        assertEquals(ConnectionMonitor.State.HALF_OPEN, connectionMonitor.getState());
+        connectionMonitor.onSuccess();
+        assertEquals(ConnectionMonitor.State.CLOSED, connectionMonitor.getState());
+    }
+
+    /**
+     * tests that a failure while half-open opens the circuit again
+     */
+    @Test
+    public void testHalfOpenFailure() throws Exception {
+        reachable.set(true);
+        connectionMonitor.onFailure();
+        assertTrue(connectionMonitor.await(5000));
+        reachable.set(false);
+        connectionMonitor.onFailure();
+        assertEquals(ConnectionMonitor.State.OPEN, connectionMonitor.getState());
+        int before = probes.get();
+        Thread.sleep(200);
+        int during = probes.get() - before;
+        // probes back off exponentially up to 40ms, a fixed 10ms interval would probe about 20 times
+        assertTrue("too many probes: " + during, during < 10);
+    }
+}
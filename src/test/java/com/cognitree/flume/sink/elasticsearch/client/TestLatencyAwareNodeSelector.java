@@ -0,0 +1,56 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Node;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestLatencyAwareNodeSelector {
+
+    private final Node fast = new Node(new HttpHost("fast", 9200));
+
+    private final Node slow = new Node(new HttpHost("slow", 9200));
+
+    private final Node unknown = new Node(new HttpHost("unknown", 9200));
+
+    /**
+     * tests that slow nodes are skipped and unmeasured nodes kept
+     */
+    @Test
+    public void testLatency() {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(60000, 0);
+        selector.onLatency(fast.getHost(), 10);
+        selector.onLatency(slow.getHost(), 100);
+        assertEquals(Arrays.asList(fast, unknown), select(selector, fast, slow, unknown));
+        // the average follows the latest samples
+        for (int i = 0; i < 10; i++) {
+            selector.onLatency(slow.getHost(), 10);
+        }
+        assertEquals(Arrays.asList(fast, slow), select(selector, fast, slow));
+    }
+
+    /**
+     * tests that failed nodes are skipped during the cooldown, unless all nodes failed
+     */
+    @Test
+    public void testFailure() throws Exception {
+        LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(50, 0);
+        selector.onFailure(fast.getHost());
+        assertEquals(Arrays.asList(slow), select(selector, fast, slow));
+        selector.onFailure(slow.getHost());
+        assertEquals(Arrays.asList(fast, slow), select(selector, fast, slow));
+        Thread.sleep(100);
+        assertEquals(Arrays.asList(fast, slow), select(selector, fast, slow));
+    }
+
+    private static List<Node> select(LatencyAwareNodeSelector selector, Node... nodes) {
+        List<Node> selected = new ArrayList<>(Arrays.asList(nodes));
+        selector.select(selected);
+        return selected;
+    }
+}
@@ -0,0 +1,79 @@
+package com.cognitree.flume.sink.elasticsearch.client;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TestNdjsonBulkEncoder {
+
+    /**
+     * tests the encoded _bulk body
+     */
+    @Test
+    public void testEncode() throws Exception {
+        NdjsonBulkEncoder encoder = new NdjsonBulkEncoder(null, null, 1);
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest("test").source(new BytesArray("{\"a\":1}"), XContentType.JSON))
+                .add(new IndexRequest("test", "_doc", "i\"dé").source(new BytesArray("{\"b\":\"ü\"}"),
+                        XContentType.JSON));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(request, out);
+        assertEquals("{\"index\":{\"_index\":\"test\"}}\n{\"a\":1}\n" +
+                        "{\"index\":{\"_index\":\"test\",\"_id\":\"i\\\"dé\"}}\n{\"b\":\"ü\"}\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * tests that the routing key is written in the action line
+     */
+    @Test
+    public void testRouting() throws Exception {
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest("test", "_doc", "1").routing("tenant\"1").source(new BytesArray("{}"),
+                        XContentType.JSON))
+                .add(new IndexRequest("test").routing("t2").source(new BytesArray("{}"), XContentType.JSON));
+        assertTrue(NdjsonBulkEncoder.canEncode(request));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NdjsonBulkEncoder(null, null, 1).encode(request, out);
+        assertEquals("{\"index\":{\"_index\":\"test\",\"_id\":\"1\",\"routing\":\"tenant\\\"1\"}}\n{}\n"
+                        + "{\"index\":{\"_index\":\"test\",\"routing\":\"t2\"}}\n{}\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * tests one action line and one source line per item
+     */
+    @Test
+    public void testLines() throws Exception {
+        BulkRequest request = new BulkRequest()
+                .add(new IndexRequest("one", "_doc", "1").source(new BytesArray("{\"a\":1}"), XContentType.JSON))
+                .add(new IndexRequest("two").source(new BytesArray("{\"b\":[1,2]}"), XContentType.JSON));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new NdjsonBulkEncoder(null, null, 1).encode(request, out);
+        String body = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        String[] lines = body.split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].contains("\"_index\":\"one\"") && lines[0].contains("\"_id\":\"1\""));
+        assertEquals("{\"b\":[1,2]}", lines[3]);
+    }
+
+    /**
+     * tests that unsupported actions fall back to the client
+     */
+    @Test
+    public void testCanEncode() {
+        assertTrue(NdjsonBulkEncoder.canEncode(new BulkRequest()
+                .add(new IndexRequest("test").source(new BytesArray("{}"), XContentType.JSON))));
+        assertFalse(NdjsonBulkEncoder.canEncode(new BulkRequest().add(new DeleteRequest("test", "1"))));
+        assertFalse(NdjsonBulkEncoder.canEncode(new BulkRequest()
+                .add(new IndexRequest("test").source(new BytesArray("{}"), XContentType.SMILE))));
+    }
+}